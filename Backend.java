@@ -0,0 +1,34 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+/**
+   The implementations that {@link PipelineGL#render} can render a
+   {@link renderer.scene.Scene} with.
+<p>
+   Both backends take the same {@code Scene} and
+   {@link renderer.framebuffer.FrameBuffer}, so a program can switch
+   between them without any other change.
+<p>
+   Both backends also keep each {@link renderer.scene.Model}'s geometry
+   from frame to frame, in a {@link CompiledMesh} (and, for OpenGL, in
+   buffers on the GPU). Each render compares a model's vertices and
+   primitives with the ones its mesh was built from, so a program that
+   edits a model in place, for example by moving its vertices, needs to
+   do nothing else for either backend to draw the new geometry.
+*/
+public enum Backend
+{
+   /** Use OpenGL when a GL4 profile is available, otherwise the CPU. */
+   AUTO,
+
+   /** Always use OpenGL, and fail if a GL4 profile is not available. */
+   GL,
+
+   /** Always use the CPU, see {@link PipelineCPU}. */
+   CPU
+}
@@ -0,0 +1,272 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import renderer.scene.*;
+import renderer.scene.primitives.*;
+
+/**
+   A compact, array-based form of a {@link Model}'s geometry that is
+   built once and then shared by the GPU and CPU rendering paths.
+<p>
+   A {@link Model} stores its geometry as a {@link java.util.List} of
+   {@link Vertex} objects and a {@link java.util.List} of {@link Primitive}
+   objects, each with its own boxed {@link Integer} index list. Walking
+   those lists, checking each primitive's type, and unboxing its indexes
+   every frame costs more than the rendering itself. A {@code CompiledMesh}
+   holds the same geometry in primitive arrays,
+<ul>
+<li>the vertex coordinates, one array per coordinate,
+<li>the two vertex indexes of every {@link LineSegment},
+<li>the vertex index of every {@link Point}, grouped by the point's radius
+    (a point with a negative radius covers no pixels, so it is left out),
+<li>the size, in pixels, of the square that a point at each vertex covers.
+</ul>
+<p>
+   {@link #of(Model)} builds a model's mesh the first time it is asked for
+   and returns that same mesh until the model changes. Each mesh keeps the
+   {@link Vertex} and {@link Primitive} objects it was built from, and
+   {@link #of(Model)} compares them with the model's lists. Since a
+   {@link Vertex} is immutable, a vertex list holding the same objects holds
+   the same coordinates, so an identity scan is exact for the vertices. A
+   {@link Primitive} can be edited, so the indexes (and a point's radius)
+   are compared as well. Editing a model in place, by replacing a vertex,
+   adding a primitive, or changing a point's radius, is therefore always
+   noticed. Since a new mesh object is built after every change, the
+   identity of a model's mesh can be used as the model's content version.
+   The cache of meshes is shared by every thread, so its methods are
+   synchronized.
+*/
+public final class CompiledMesh
+{
+   /** The vertex coordinates, indexed by vertex index. */
+   public final double[] x, y, z;
+
+   /** Two vertex indexes for each line segment. */
+   public final int[] lineIndexes;
+
+   /** One vertex index for each point, with points of equal radius next to each other. */
+   public final int[] pointIndexes;
+
+   /**
+      The points are in runs of equal radius. Run {@code r} has radius
+      {@code pointRunRadius[r]} and holds the points from
+      {@code pointIndexes[pointRunStart[r]]} up to, but not including,
+      {@code pointIndexes[pointRunStart[r+1]]}.
+   */
+   public final int[] pointRunRadius, pointRunStart;
+
+   /**
+      The side length, {@code 2r+1}, of the square of pixels that
+      {@link Rasterize_Clip_Point} fills for a point of radius {@code r},
+      indexed by vertex index. A vertex used by several points gets the
+      largest of their sizes, since the points are all centered on the
+      same pixel and the largest square covers the others. A vertex not
+      used by any point has size 1.
+   */
+   public final float[] pointSize;
+
+   /** The number of vertices and primitives in the model when this mesh was built. */
+   public final int numVertexes, numPrimitives;
+
+   // The objects, and the primitives' indexes and radii,
+   // that this mesh was built from, for matches().
+   private final Vertex[] vertexes;
+   private final Primitive[] primitives;
+   private final int[] primitiveState;
+
+   private static final Map<Model, CompiledMesh> meshes = new WeakHashMap<>();
+
+   /**
+      Return the compiled form of the given {@link Model}, building it
+      if the model has not been compiled yet or has changed since.
+
+      @param model  {@link Model} to compile
+      @return the {@link CompiledMesh} for {@code model}
+   */
+   public static synchronized CompiledMesh of(final Model model)
+   {
+      CompiledMesh mesh = meshes.get(model);
+      if (mesh == null || !mesh.matches(model))
+      {
+         mesh = new CompiledMesh(model);
+         meshes.put(model, mesh);
+      }
+      return mesh;
+   }
+
+   /**
+      Forget the compiled form of the given {@link Model}, so
+      that it is rebuilt the next time it is asked for. Edits to
+      the model are noticed without this; it is for callers that
+      need a new mesh object, and so a new content version.
+
+      @param model  {@link Model} whose mesh should be rebuilt
+   */
+   public static synchronized void invalidate(final Model model)
+   {
+      meshes.remove(model);
+   }
+
+   /** @return the number of line segments in this mesh */
+   public int numLines() { return lineIndexes.length / 2; }
+
+   /** @return the number of points in this mesh */
+   public int numPoints() { return pointIndexes.length; }
+
+   /** @return the number of runs of equal-radius points in this mesh */
+   public int numPointRuns() { return pointRunRadius.length; }
+
+
+   /**
+      @param model  {@link Model} this mesh was built from
+      @return true if the model still has exactly the geometry this mesh was built from
+   */
+   private boolean matches(final Model model)
+   {
+      if (vertexes.length   != model.vertexList.size()
+       || primitives.length != model.primitiveList.size())
+      {
+         return false;
+      }
+      int i = 0;
+      for (final Vertex v : model.vertexList)
+      {
+         if (v != vertexes[i])
+            return false;
+         i += 1;
+      }
+      i = 0;
+      for (final Primitive p : model.primitiveList)
+      {
+         if (p != primitives[i]
+          || first(p)  != primitiveState[2 * i + 0]
+          || second(p) != primitiveState[2 * i + 1])
+         {
+            return false;
+         }
+         i += 1;
+      }
+      return true;
+   }
+
+   // The parts of a primitive that a mesh is built from: the vertex
+   // indexes of a line segment, or the vertex index and radius of a point.
+   private static int first(final Primitive p)
+   {
+      return (p instanceof LineSegment || p instanceof Point) ? p.vIndexList.get(0) : 0;
+   }
+
+   private static int second(final Primitive p)
+   {
+      if (p instanceof LineSegment)
+         return p.vIndexList.get(1);
+      else if (p instanceof Point)
+         return ((Point)p).radius;
+      else
+         return 0;
+   }
+
+
+   private CompiledMesh(final Model model)
+   {
+      vertexes      = model.vertexList.toArray(new Vertex[0]);
+      primitives    = model.primitiveList.toArray(new Primitive[0]);
+      numVertexes   = vertexes.length;
+      numPrimitives = primitives.length;
+
+      primitiveState = new int[2 * numPrimitives];
+      for (int p = 0; p < numPrimitives; ++p)
+      {
+         primitiveState[2 * p + 0] = first(primitives[p]);
+         primitiveState[2 * p + 1] = second(primitives[p]);
+      }
+
+      x = new double[numVertexes];
+      y = new double[numVertexes];
+      z = new double[numVertexes];
+      int i = 0;
+      for (final Vertex v : vertexes)
+      {
+         x[i] = v.x;
+         y[i] = v.y;
+         z[i] = v.z;
+         i += 1;
+      }
+
+      int numLines  = 0;
+      int numPoints = 0;
+      for (final Primitive p : primitives)
+      {
+         if (p instanceof LineSegment)
+            numLines += 1;
+         else if (p instanceof Point && ((Point)p).radius >= 0)
+            numPoints += 1;
+      }
+
+      // Sort the points by radius, so they can be placed in runs of
+      // equal radius. Each key is a point's radius above its primitive's
+      // position in the model, so points of equal radius keep their order.
+      final long[] keys = new long[numPoints];
+      int k = 0;
+      for (int p = 0; p < numPrimitives; ++p)
+      {
+         if (primitives[p] instanceof Point && primitiveState[2 * p + 1] >= 0)
+         {
+            keys[k] = ((long)primitiveState[2 * p + 1] << 32) | p;
+            k += 1;
+         }
+      }
+      Arrays.sort(keys);
+
+      pointSize = new float[numVertexes];
+      Arrays.fill(pointSize, 1);
+
+      pointIndexes = new int[numPoints];
+      int numRuns = 0;
+      for (int n = 0; n < numPoints; ++n)
+      {
+         final int p = (int)keys[n];
+         final int r = primitiveState[2 * p + 1];
+         final int v = primitiveState[2 * p + 0];
+         pointIndexes[n] = v;
+         pointSize[v] = Math.max(pointSize[v], 2 * r + 1);
+         if (n == 0 || r != (int)(keys[n - 1] >>> 32))
+            numRuns += 1;
+      }
+      pointRunRadius = new int[numRuns];
+      pointRunStart  = new int[numRuns + 1];
+      int run = 0;
+      for (int n = 0; n < numPoints; ++n)
+      {
+         final int r = (int)(keys[n] >>> 32);
+         if (n == 0 || r != (int)(keys[n - 1] >>> 32))
+         {
+            pointRunRadius[run] = r;
+            pointRunStart[run]  = n;
+            run += 1;
+         }
+      }
+      pointRunStart[numRuns] = numPoints;
+
+      lineIndexes = new int[numLines * 2];
+      int lineIndex = 0;
+      for (int p = 0; p < numPrimitives; ++p)
+      {
+         if (primitives[p] instanceof LineSegment)
+         {
+            lineIndexes[lineIndex + 0] = primitiveState[2 * p + 0];
+            lineIndexes[lineIndex + 1] = primitiveState[2 * p + 1];
+            lineIndex += 2;
+         }
+      }
+   }
+}
@@ -0,0 +1,137 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.jogamp.opengl.GLDebugMessage;
+
+/**
+   A bounded, lock-free queue of {@link GLDebugMessage}s.
+<p>
+   The driver may call the debug callback from any of its threads, in
+   the middle of any GL call. So the callback must never block.
+   {@link #offer} claims a slot with one compare-and-set and,
+   when the queue is full, drops the message and counts it in
+   {@link #getDropped} instead of waiting for room.
+<p>
+   This is the bounded array queue described by Dmitry Vyukov. Every slot
+   has a sequence number that says whether the slot is ready to be written
+   (its sequence equals the writer's position) or ready to be read (its
+   sequence is one past the reader's position).
+<pre>
+     https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+</pre>
+*/
+public final class DebugMessageQueue
+{
+   private final AtomicReferenceArray<GLDebugMessage> slots;
+   private final AtomicLongArray sequence;
+   private final int mask;
+
+   private final AtomicLong tail    = new AtomicLong(0); // the next position to write
+   private final AtomicLong head    = new AtomicLong(0); // the next position to read
+   private final AtomicLong dropped = new AtomicLong(0);
+
+   /**
+      @param capacity  the most messages the queue holds, rounded up to a power of 2
+   */
+   public DebugMessageQueue(final int capacity)
+   {
+      final int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+      slots    = new AtomicReferenceArray<>(size);
+      sequence = new AtomicLongArray(size);
+      mask     = size - 1;
+      for (int i = 0; i < size; ++i)
+      {
+         sequence.set(i, i);
+      }
+   }
+
+   /**
+      Add a message, unless the queue is full.
+
+      @param message  the {@link GLDebugMessage} to add
+      @return {@code false} if the queue was full and the message was dropped
+   */
+   public boolean offer(final GLDebugMessage message)
+   {
+      long pos = tail.get();
+      while (true)
+      {
+         final int i = (int)(pos & mask);
+         final long diff = sequence.get(i) - pos;
+         if (diff == 0) // the slot is free, try to claim it
+         {
+            if (tail.compareAndSet(pos, pos + 1))
+            {
+               slots.set(i, message);
+               sequence.set(i, pos + 1); // publish it to the reader
+               return true;
+            }
+            pos = tail.get();
+         }
+         else if (diff < 0) // the reader has not emptied this slot yet
+         {
+            dropped.incrementAndGet();
+            return false;
+         }
+         else // another writer claimed the slot first
+         {
+            pos = tail.get();
+         }
+      }
+   }
+
+   /**
+      Remove the oldest message.
+
+      @return the oldest {@link GLDebugMessage}, or {@code null} if the queue is empty
+   */
+   public GLDebugMessage poll()
+   {
+      long pos = head.get();
+      while (true)
+      {
+         final int i = (int)(pos & mask);
+         final long diff = sequence.get(i) - (pos + 1);
+         if (diff == 0) // the slot has been published, try to claim it
+         {
+            if (head.compareAndSet(pos, pos + 1))
+            {
+               final GLDebugMessage message = slots.get(i);
+               slots.set(i, null);
+               sequence.set(i, pos + mask + 1); // hand the slot back to the writers
+               return message;
+            }
+            pos = head.get();
+         }
+         else if (diff < 0) // empty
+         {
+            return null;
+         }
+         else
+         {
+            pos = head.get();
+         }
+      }
+   }
+
+   /** @return the number of messages waiting to be read */
+   public int size()
+   {
+      return (int)Math.max(0, tail.get() - head.get());
+   }
+
+   /** @return the number of messages dropped because the queue was full */
+   public long getDropped()
+   {
+      return dropped.get();
+   }
+}
@@ -0,0 +1,384 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.nio.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import renderer.scene.*;
+
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+
+/**
+   Keep each {@link Model}'s vertex and index buffers resident on
+   the GPU across frames.
+<p>
+   The first time a {@link Model} is rendered its geometry is packed
+   and uploaded into a vertex buffer object and an index buffer object.
+   On every later frame the renderer binds those same buffer objects,
+   so a model that has not changed since the last frame uploads zero
+   bytes of geometry.
+<p>
+   The cache is keyed by {@link Model} identity. Each entry also records
+   the {@link CompiledMesh} it was uploaded from, which serves as the
+   model's content version. If a model has been edited, it gets a new
+   mesh (see {@link CompiledMesh#of}) and its entry is rebuilt.
+<p>
+   The total size of the resident buffers is kept under
+   {@link #gpuMemoryBudget} by evicting the least recently used entries.
+*/
+public final class GeometryCache
+{
+   /** The most bytes of geometry the cache will keep resident on the GPU. */
+   public static long gpuMemoryBudget = 256L * 1024 * 1024;
+
+   /** The {@link VertexFormat} that models are uploaded with when it is accurate enough. */
+   public static VertexFormat preferredFormat = VertexFormat.FLOAT32;
+
+   /**
+      The largest error, in model coordinates, that {@link VertexFormat#INT16}
+      quantization may introduce. A model whose bounding box is too large to
+      be quantized within this error is uploaded as {@link VertexFormat#FLOAT32}.
+   */
+   public static double maxQuantizationError = 1.0e-4;
+
+   private static final int numCoordsPerPoint = 3;
+
+   // access-ordered, so iteration starts with the least recently used model
+   private static final LinkedHashMap<Model, Entry> cache =
+                                       new LinkedHashMap<>(16, 0.75f, true);
+
+   private static long bytesResident = 0;
+   private static long frame = 0;
+
+   private static long hits          = 0;
+   private static long misses        = 0;
+   private static long evictions     = 0;
+   private static long bytesUploaded = 0;
+
+   /**
+      The buffer objects, and the draw ranges within them,
+      that hold one {@link Model}'s geometry on the GPU.
+   */
+   static final class Entry
+   {
+      final int  vertexBufferID;   // xyz coordinates of every vertex, then every vertex's point size
+      final long vertexByteOffset; // where the geometry starts in its buffers,
+      final int  indexBufferID;    // line indexes followed by point indexes
+      final long indexByteOffset;  // zero unless the buffers are shared
+
+      final VertexFormat format;
+      final float[] vertexScale;  // decode: vertexOffset + vertexScale * vertex
+      final float[] vertexOffset;
+
+      final long pointSizeByteOffset; // where the point sizes start in the vertex buffer
+      final int  numLineIndexes;
+      final int  numPointIndexes;
+
+      final CompiledMesh mesh;    // the content version of the model, null if streamed
+      final long sizeInBytes;
+
+      long lastUsedFrame = -1;    // entries used in the current frame are never evicted
+
+      Entry(final int vertexBufferID, final long vertexByteOffset,
+            final int indexBufferID,  final long indexByteOffset,
+            final VertexFormat format,
+            final float[] vertexScale, final float[] vertexOffset,
+            final long pointSizeByteOffset,
+            final int numLineIndexes, final int numPointIndexes,
+            final CompiledMesh mesh,
+            final long sizeInBytes)
+      {
+         this.vertexBufferID      = vertexBufferID;
+         this.vertexByteOffset    = vertexByteOffset;
+         this.indexBufferID       = indexBufferID;
+         this.indexByteOffset     = indexByteOffset;
+         this.format              = format;
+         this.vertexScale         = vertexScale;
+         this.vertexOffset        = vertexOffset;
+         this.pointSizeByteOffset = pointSizeByteOffset;
+         this.numLineIndexes      = numLineIndexes;
+         this.numPointIndexes     = numPointIndexes;
+         this.mesh                = mesh;
+         this.sizeInBytes         = sizeInBytes;
+      }
+
+      /**
+         The byte offset of the line indexes within the index buffer.
+      */
+      long lineIndexOffset()
+      {
+         return indexByteOffset;
+      }
+
+      /**
+         The byte offset of the point indexes within the index buffer.
+      */
+      long pointIndexOffset()
+      {
+         return indexByteOffset + (long)numLineIndexes * Buffers.SIZEOF_INT;
+      }
+   }
+
+   /**
+      Return the resident GPU buffers for the given {@link Model},
+      uploading the model's geometry if it is not in the cache, or
+      if the model has changed since it was uploaded.
+
+      @param gl     the {@link GL4} object of the current context
+      @param model  {@link Model} whose geometry is needed
+      @return the cache {@link Entry} holding the model's buffer objects
+   */
+   static Entry lookup(final GL4 gl, final Model model)
+   {
+      final CompiledMesh mesh = CompiledMesh.of(model);
+      Entry entry = cache.get(model);
+
+      if (entry != null && entry.mesh == mesh)
+      {
+         hits += 1;
+         entry.lastUsedFrame = frame;
+         return entry;
+      }
+
+      misses += 1;
+      if (entry != null)
+      {
+         cache.remove(model);
+         delete(gl, entry);
+      }
+
+      entry = upload(gl, mesh);
+      entry.lastUsedFrame = frame;
+      cache.put(model, entry);
+      bytesResident += entry.sizeInBytes;
+
+      evict(gl);
+
+      return entry;
+   }
+
+   /**
+      Start a new frame. Every entry looked up from now until the next
+      call is kept resident, even over the memory budget, so that a frame
+      can look up all of its geometry before drawing any of it.
+   */
+   static void beginFrame()
+   {
+      frame += 1;
+   }
+
+   /**
+      Force the given {@link Model}'s geometry to be uploaded again
+      the next time it is rendered.
+
+      @param model  {@link Model} whose geometry should be uploaded again
+   */
+   public static void invalidate(final Model model)
+   {
+      // A new mesh will be compiled, which will not match the cached entry.
+      CompiledMesh.invalidate(model);
+   }
+
+   /**
+      Delete every resident buffer object.
+
+      @param gl  the {@link GL4} object of the current context
+   */
+   static void clear(final GL4 gl)
+   {
+      for (final Entry entry : cache.values())
+      {
+         delete(gl, entry);
+      }
+      cache.clear();
+   }
+
+   /** @return the number of lookups that found current geometry on the GPU */
+   public static long getHits() { return hits; }
+
+   /** @return the number of lookups that had to upload geometry */
+   public static long getMisses() { return misses; }
+
+   /** @return the number of entries evicted to stay under the memory budget */
+   public static long getEvictions() { return evictions; }
+
+   /** @return the total number of geometry bytes uploaded to the GPU */
+   public static long getBytesUploaded() { return bytesUploaded; }
+
+   /** @return the number of geometry bytes currently resident on the GPU */
+   public static long getBytesResident() { return bytesResident; }
+
+   /**
+      Set the hit, miss, eviction and upload counters back to zero.
+   */
+   public static void resetCounters()
+   {
+      hits          = 0;
+      misses        = 0;
+      evictions     = 0;
+      bytesUploaded = 0;
+   }
+
+
+   private static Entry upload(final GL4 gl, final CompiledMesh mesh)
+   {
+      final int numVertexes = mesh.numVertexes;
+      final double[][] coords = {mesh.x, mesh.y, mesh.z};
+
+      // Find the model's bounding box, which the INT16 format is normalized against.
+      final double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+      final double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+      for (int c = 0; c < numCoordsPerPoint; ++c)
+      {
+         for (final double v : coords[c])
+         {
+            min[c] = Math.min(min[c], v);
+            max[c] = Math.max(max[c], v);
+         }
+      }
+
+      final float[] vertexScale  = {1, 1, 1};
+      final float[] vertexOffset = {0, 0, 0};
+      final VertexFormat format = chooseFormat(numVertexes, min, max);
+
+      final Buffer vertBuffer;
+      if (format == VertexFormat.INT16)
+      {
+         final double[] center = new double[numCoordsPerPoint];
+         final double[] half   = new double[numCoordsPerPoint];
+         for (int c = 0; c < numCoordsPerPoint; ++c)
+         {
+            center[c] = (min[c] + max[c]) / 2;
+            half[c]   = (max[c] > min[c]) ? (max[c] - min[c]) / 2 : 1;
+            vertexOffset[c] = (float)center[c];
+            vertexScale[c]  = (float)half[c];
+         }
+
+         // three coordinates padded out to four shorts, so each vertex is 4-byte aligned
+         final ShortBuffer shorts = Buffers.newDirectShortBuffer(numVertexes * 4);
+         for (int i = 0; i < numVertexes; ++i)
+         {
+            shorts.put(quantize(mesh.x[i], center[0], half[0]));
+            shorts.put(quantize(mesh.y[i], center[1], half[1]));
+            shorts.put(quantize(mesh.z[i], center[2], half[2]));
+            shorts.put((short)0);
+         }
+         vertBuffer = shorts.flip();
+      }
+      else
+      {
+         final FloatBuffer floats = Buffers.newDirectFloatBuffer(numVertexes * numCoordsPerPoint);
+         for (int i = 0; i < numVertexes; ++i)
+         {
+            floats.put((float)mesh.x[i]);
+            floats.put((float)mesh.y[i]);
+            floats.put((float)mesh.z[i]);
+         }
+         vertBuffer = floats.flip();
+      }
+
+      // The line indexes come first, followed by the point indexes,
+      // so that one index buffer holds every draw range.
+      final IntBuffer indBuffer = Buffers.newDirectIntBuffer(mesh.lineIndexes.length + mesh.pointIndexes.length);
+      indBuffer.put(mesh.lineIndexes);
+      indBuffer.put(mesh.pointIndexes);
+      indBuffer.flip();
+
+      final long coordBytes = (long)numVertexes * format.stride;
+      final long sizeBytes  = (long)numVertexes * Buffers.SIZEOF_FLOAT;
+      final long vertBytes  = coordBytes + sizeBytes;
+      final long indBytes   = (long)indBuffer.limit() * Buffers.SIZEOF_INT;
+
+      //https://docs.gl/gl4/glGenBuffers
+      final int[] vbo = new int[2];
+      gl.glGenBuffers(vbo.length, vbo, 0);
+
+      //https://docs.gl/gl4/glBufferData
+      //https://docs.gl/gl4/glBufferSubData
+      gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, vbo[0]);
+      gl.glBufferData(GL4.GL_ARRAY_BUFFER, vertBytes, null, GL4.GL_STATIC_DRAW);
+      gl.glBufferSubData(GL4.GL_ARRAY_BUFFER, 0, coordBytes, vertBuffer);
+      gl.glBufferSubData(GL4.GL_ARRAY_BUFFER, coordBytes, sizeBytes, Buffers.newDirectFloatBuffer(mesh.pointSize));
+
+      gl.glBindBuffer(GL4.GL_ELEMENT_ARRAY_BUFFER, vbo[1]);
+      gl.glBufferData(GL4.GL_ELEMENT_ARRAY_BUFFER, indBytes, indBuffer, GL4.GL_STATIC_DRAW);
+      OpenGLChecker.checkCall(gl);
+
+      bytesUploaded += vertBytes + indBytes;
+
+      return new Entry(vbo[0], 0, vbo[1], 0,
+                       format,
+                       vertexScale, vertexOffset,
+                       coordBytes,
+                       mesh.lineIndexes.length, mesh.pointIndexes.length,
+                       mesh,
+                       vertBytes + indBytes);
+   }
+
+   // Use the preferred format only if it is accurate enough for this model.
+   private static VertexFormat chooseFormat(final int numVertexes,
+                                            final double[] min,
+                                            final double[] max)
+   {
+      if (preferredFormat != VertexFormat.INT16 || numVertexes == 0)
+      {
+         return VertexFormat.FLOAT32;
+      }
+
+      // Rounding to the nearest of 2*INT16_MAX steps across the box
+      // is off by at most half a step.
+      for (int i = 0; i < numCoordsPerPoint; ++i)
+      {
+         final double half = (max[i] - min[i]) / 2;
+         if (half / VertexFormat.INT16_MAX / 2 > maxQuantizationError)
+         {
+            return VertexFormat.FLOAT32;
+         }
+      }
+      return VertexFormat.INT16;
+   }
+
+   private static short quantize(final double v, final double center, final double half)
+   {
+      return (short)Math.round((v - center) / half * VertexFormat.INT16_MAX);
+   }
+
+   private static void evict(final GL4 gl)
+   {
+      final Iterator<Map.Entry<Model, Entry>> it = cache.entrySet().iterator();
+      while (bytesResident > gpuMemoryBudget && it.hasNext())
+      {
+         final Entry entry = it.next().getValue();
+         if (entry.lastUsedFrame != frame) // never evict geometry that this frame will draw
+         {
+            it.remove();
+            delete(gl, entry);
+            evictions += 1;
+         }
+      }
+   }
+
+   private static void delete(final GL4 gl, final Entry entry)
+   {
+      //https://docs.gl/gl4/glDeleteBuffers
+      final int[] vbo = {entry.vertexBufferID, entry.indexBufferID};
+      gl.glDeleteBuffers(vbo.length, vbo, 0);
+      bytesResident -= entry.sizeInBytes;
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private GeometryCache() {
+      throw new AssertionError();
+   }
+}
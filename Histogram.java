@@ -0,0 +1,153 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.util.Arrays;
+
+/**
+   A histogram of durations, in nanoseconds, with a fixed amount of
+   memory and constant-time recording.
+<p>
+   The buckets are logarithmic. Each power of two is split into 8
+   equal sub-buckets, so a value is known to within 12.5% of itself,
+   from 1 ns up to {@link Long#MAX_VALUE}, in 496 buckets.
+*/
+public final class Histogram
+{
+   private static final int subBits    = 3;
+   private static final int subBuckets = 1 << subBits;
+   private static final int numBuckets = (64 - subBits + 1) * subBuckets;
+
+   private final long[] counts = new long[numBuckets];
+
+   private long count = 0;
+   private long sum   = 0;
+   private long min   = Long.MAX_VALUE;
+   private long max   = 0;
+
+   /**
+      Record one duration.
+
+      @param nanos  a duration in nanoseconds, negative durations count as 0
+   */
+   public void record(final long nanos)
+   {
+      final long v = Math.max(0, nanos);
+      counts[bucket(v)] += 1;
+      count += 1;
+      sum   += v;
+      min    = Math.min(min, v);
+      max    = Math.max(max, v);
+   }
+
+   /** @return the number of recorded durations */
+   public long getCount() { return count; }
+
+   /** @return the sum of the recorded durations, in nanoseconds */
+   public long getSum() { return sum; }
+
+   /** @return the shortest recorded duration, in nanoseconds, or 0 if there are none */
+   public long getMin() { return count == 0 ? 0 : min; }
+
+   /** @return the longest recorded duration, in nanoseconds */
+   public long getMax() { return max; }
+
+   /** @return the mean of the recorded durations, in nanoseconds */
+   public double getMean() { return count == 0 ? 0 : (double)sum / count; }
+
+   /**
+      Return a duration that the given fraction of the recorded durations
+      are no longer than, to within the 12.5% resolution of the buckets.
+
+      @param fraction  a number from 0 to 1, for example 0.99 for the 99th percentile
+      @return the percentile, in nanoseconds
+   */
+   public long percentile(final double fraction)
+   {
+      if (count == 0)
+      {
+         return 0;
+      }
+      final long rank = Math.max(1, (long)Math.ceil(fraction * count));
+      long seen = 0;
+      for (int b = 0; b < numBuckets; ++b)
+      {
+         seen += counts[b];
+         if (seen >= rank)
+         {
+            return Math.min(max, Math.max(min, upperBound(b)));
+         }
+      }
+      return max;
+   }
+
+   /**
+      Forget every recorded duration.
+   */
+   public void reset()
+   {
+      Arrays.fill(counts, 0);
+      count = 0;
+      sum   = 0;
+      min   = Long.MAX_VALUE;
+      max   = 0;
+   }
+
+   /**
+      Add every duration recorded in another histogram to this one.
+
+      @param other  the {@code Histogram} to add
+   */
+   public void add(final Histogram other)
+   {
+      for (int b = 0; b < numBuckets; ++b)
+      {
+         counts[b] += other.counts[b];
+      }
+      count += other.count;
+      sum   += other.sum;
+      min    = Math.min(min, other.min);
+      max    = Math.max(max, other.max);
+   }
+
+   @Override
+   public String toString()
+   {
+      return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+                           count,
+                           getMean() / 1e6,
+                           percentile(0.50) / 1e6,
+                           percentile(0.99) / 1e6,
+                           getMax() / 1e6);
+   }
+
+
+   // Values below 8 get a bucket each, then each power of two gets 8 buckets.
+   private static int bucket(final long v)
+   {
+      if (v < subBuckets)
+      {
+         return (int)v;
+      }
+      final int exponent = 63 - Long.numberOfLeadingZeros(v);
+      final int sub = (int)(v >>> (exponent - subBits)) & (subBuckets - 1);
+      return (exponent - subBits + 1) * subBuckets + sub;
+   }
+
+   // The largest value that falls into bucket b.
+   private static long upperBound(final int b)
+   {
+      if (b < subBuckets)
+      {
+         return b;
+      }
+      final int exponent = b / subBuckets + subBits - 1;
+      final long sub = b % subBuckets;
+      final long lower = (subBuckets + sub) << (exponent - subBits);
+      return lower + (1L << (exponent - subBits)) - 1;
+   }
+}
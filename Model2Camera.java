@@ -10,6 +10,7 @@ import renderer.scene.*;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.EnumSet;
 
 /**
    Transform each {@link Vertex} of a {@link Model} from the model's
@@ -29,24 +30,38 @@ import java.util.ArrayList;
 */
 public class Model2Camera
 {
+   /**
+      The vertex shader stage that adds a {@link Position}'s
+      translation {@link Vector} to each {@link Vertex}.
+   */
+   public static final ShaderStage model2Camera = new ShaderStage(
+      "model2Camera",
+      EnumSet.of(ShaderFeature.UNIFORM_TRANSLATION),
+
+      // A Position's translation comes either from the per-instance
+      // attribute, so that every Position of a Model is drawn with one
+      // instanced draw, or from a uniform, when a Model has one Position.
+      variant -> variant.contains(ShaderFeature.UNIFORM_TRANSLATION)
+                 ? new String[]{}
+                 : new String[]{"layout (location=1) in vec3 translationVector;"},
+      variant -> variant.contains(ShaderFeature.UNIFORM_TRANSLATION)
+                 ? new String[]{"uniform vec3 translation;"}
+                 : new String[]{},
+      variant -> variant.contains(ShaderFeature.UNIFORM_TRANSLATION)
+                 ? new String[]{"return vec4(v.xyz + translation, 1);"}
+                 : new String[]{"return vec4(v.xyz + translationVector, 1);"}
+   );
+
    /**
       Use a {@link Position}'s translation {@link Vector} to transform
       each {@link Vertex} from a {@link Model}'s coordinate system to
       the {@link Camera}'s coordinate system.
+      <p>
+      This is the CPU version of {@link #model2Camera}, used by {@link PipelineCPU}.
 
       @param position  {@link Position} with a {@link Model} and a translation {@link Vector}
       @return a new {@link Model} with {@link Vertex} objects in the camera's coordinate system
    */
-
-   public static String[] model2Camera = 
-   {
-      "vec4 model2Camera() \n", 
-      "{ \n",
-      "return vec4(translationVector + vertex, 1); \n",  
-      "} \n"
-   }; 
-
-   /*
    public static Model model2camera(final Position position)
    {
       final Model model = position.getModel();
@@ -77,5 +92,4 @@ public class Model2Camera
    private Model2Camera() {
       throw new AssertionError();
    }
-   */ 
 }
@@ -0,0 +1,104 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import renderer.scene.*;
+import renderer.framebuffer.*;
+
+/**
+   Transform vertices from a {@link Model}'s coordinate system all the
+   way to the logical pixel-plane in a single pass.
+<p>
+   This does the work of three pipeline stages at once,
+<ol>
+<li>{@link Model2Camera}, add the {@link Position}'s translation,
+<li>{@link Projection}, divide by {@code -z} (for a perspective {@link Camera}),
+<li>{@link Viewport}, map the image plane to the pixel-plane,
+</ol>
+   but each vertex's coordinates are read once, from a {@link CompiledMesh},
+   and the intermediate camera and image-plane coordinates stay in
+   registers. Only the two pixel-plane coordinates are written, into a
+   packed array that the caller reuses from frame to frame. The separate
+   stages instead write and read back a whole new {@link Model} after
+   each stage.
+<p>
+   Every coordinate goes through exactly the same floating point
+   operations, in the same order, as it does in the separate stages,
+   so the results are identical to the last bit.
+*/
+public final class Model2PixelPlane
+{
+   /**
+      Transform the vertices {@code from} up to {@code to} of a
+      {@link CompiledMesh} to the logical pixel-plane.
+      <p>
+      Vertex {@code i} is written to {@code xOut[offset + i]} and
+      {@code yOut[offset + i]}, so the vertices of many meshes can be
+      packed into one pair of arrays, and different ranges of vertices
+      can be transformed on different threads.
+
+      @param mesh         {@link CompiledMesh} with the vertices in model coordinates
+      @param from         the first vertex to transform
+      @param to           one past the last vertex to transform
+      @param translation  the {@link Position}'s translation {@link Vector}
+      @param perspective  {@code true} for a perspective {@link Camera}, {@code false} for a parallel one
+      @param vp           a reference to a {@link FrameBuffer.Viewport} in a {@link FrameBuffer}
+      @param xOut         receives the pixel-plane x-coordinates
+      @param yOut         receives the pixel-plane y-coordinates
+      @param offset       the index in {@code xOut} and {@code yOut} of the mesh's vertex 0
+   */
+   public static void model2pixelPlane(final CompiledMesh mesh,
+                                       final int from,
+                                       final int to,
+                                       final Vector translation,
+                                       final boolean perspective,
+                                       final FrameBuffer.Viewport vp,
+                                       final double[] xOut,
+                                       final double[] yOut,
+                                       final int offset)
+   {
+      final double[] x = mesh.x;
+      final double[] y = mesh.y;
+      final double[] z = mesh.z;
+
+      final double tx = translation.x;
+      final double ty = translation.y;
+      final double tz = translation.z;
+
+      final double sx = vp.getWidthVP()  / 2.001;
+      final double sy = vp.getHeightVP() / 2.001;
+
+      // The camera type is tested once, not once per vertex.
+      if (perspective)
+      {
+         for (int i = from; i < to; ++i)
+         {
+            final double zc = z[i] + tz;                  // model2camera
+            final double xp = (x[i] + tx) / -zc;          // projection
+            final double yp = (y[i] + ty) / -zc;
+            xOut[offset + i] = 0.5 + sx * (xp + 1);       // viewport
+            yOut[offset + i] = 0.5 + sy * (yp + 1);
+         }
+      }
+      else
+      {
+         for (int i = from; i < to; ++i)
+         {
+            xOut[offset + i] = 0.5 + sx * ((x[i] + tx) + 1);
+            yOut[offset + i] = 0.5 + sy * ((y[i] + ty) + 1);
+         }
+      }
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private Model2PixelPlane() {
+      throw new AssertionError();
+   }
+}
@@ -1,24 +1,141 @@
 package renderer.pipelineGL;
 
 import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLContext;
+import com.jogamp.opengl.GLDebugMessage;
 import com.jogamp.opengl.glu.*;
 
 public class OpenGLChecker 
 {
+    /**
+        How much GL error checking the renderer does.
+        <ul>
+        <li>{@code OFF} never checks.
+        <li>{@code PER_FRAME} drains {@code glGetError} once at the end of each frame.
+        <li>{@code PER_CALL} also drains {@code glGetError} after each GL operation
+            the renderer checks, which serializes the driver, so it is only for debugging.
+        <li>{@code ASYNC} never calls {@code glGetError}. The driver reports errors
+            through the {@code KHR_debug} callback into {@link #debugMessages},
+            which {@link #beginFrame} installs before the frame's first GL call,
+            and the queue is emptied once at the end of each frame.
+        </ul>
+    */
+    public enum Level { OFF, PER_FRAME, PER_CALL, ASYNC }
+
+    public static Level level = Level.PER_FRAME;
+
+    /** The debug messages the driver has sent, in {@link Level#ASYNC} mode. */
+    public static final DebugMessageQueue debugMessages = new DebugMessageQueue(1024);
+
+    private static GLU glu; 
+    private static boolean debugOutputEnabled = false; 
+
+    /**
+        Get ready to check a frame, before its first GL call.
+        In {@link Level#ASYNC} mode this installs the debug callback,
+        the first time it is called with that level, so that errors
+        from the first frame (and from the context's first frame after
+        the level is changed to {@code ASYNC}) are not lost.
+
+        @param gl  the {@link GL4} object of the current context
+    */
+    public static void beginFrame(GL4 gl)
+    {
+        if(level == Level.ASYNC && !debugOutputEnabled)
+            enableDebugOutput(gl); 
+    }
+
+    /**
+        Check for GL errors after a single GL operation, if the
+        {@link #level} is {@link Level#PER_CALL}.
+
+        @param gl  the {@link GL4} object of the current context
+        @return true if an error was found
+    */
+    public static boolean checkCall(GL4 gl)
+    {
+        if(level != Level.PER_CALL)
+            return false; 
+
+        return CheckOpenGLError(gl); 
+    }
+
+    /**
+        Check for GL errors at the end of a frame, in whichever
+        way the {@link #level} asks for.
+
+        @param gl  the {@link GL4} object of the current context
+        @return true if an error was found
+    */
+    public static boolean checkFrame(GL4 gl)
+    {
+        switch(level)
+        {
+            case PER_FRAME:
+            case PER_CALL:
+                return CheckOpenGLError(gl); 
+            case ASYNC:
+                return drainDebugMessages(); 
+            default:
+                return false; 
+        }
+    }
+
+    /**
+        Have the driver send its debug messages into {@link #debugMessages}.
+        The messages are most complete when the context was created with
+        {@link GLContext#CTX_OPTION_DEBUG}.
+
+        @param gl  the {@link GL4} object of the current context
+    */
+    public static void enableDebugOutput(GL4 gl)
+    {
+        //https://docs.gl/gl4/glDebugMessageCallback
+        final GLContext context = gl.getContext(); 
+        context.addGLDebugListener(message -> debugMessages.offer(message)); 
+        context.enableGLDebugMessage(true); 
+
+        // without GL_DEBUG_OUTPUT_SYNCHRONOUS, the driver may report
+        // messages from its own threads instead of inside the GL call
+        gl.glEnable(GL4.GL_DEBUG_OUTPUT); 
+        gl.glDisable(GL4.GL_DEBUG_OUTPUT_SYNCHRONOUS); 
+        debugOutputEnabled = true; 
+    }
+
+    /**
+        Print every queued debug message to stderr, except notifications.
+
+        @return true if one of the messages reported an error
+    */
+    public static boolean drainDebugMessages()
+    {
+        boolean foundErr = false;
+
+        for(GLDebugMessage message = debugMessages.poll(); message != null; message = debugMessages.poll())
+        {
+            if(message.getDbgSeverity() != GL4.GL_DEBUG_SEVERITY_NOTIFICATION)
+                System.err.println("GL Debug: " + message.getDbgMsg()); 
+
+            if(message.getDbgType() == GL4.GL_DEBUG_TYPE_ERROR)
+                foundErr = true; 
+        }
+
+        return foundErr; 
+    }
+
     public static boolean CheckOpenGLError(GL4 gl)
     {
-        GLU glu = new GLU(); 
         boolean foundErr = false;
 
         for(int glErr = gl.glGetError(); glErr != GL4.GL_NO_ERROR; glErr = gl.glGetError())
         {
+            if(glu == null)
+                glu = new GLU(); 
+
             System.err.println("GL Error: " + glu.gluErrorString(glErr));
             foundErr = true;
         }
 
-        if(!foundErr)
-            System.out.println("No GL Error"); 
-
         return foundErr; 
     }
 
@@ -77,7 +194,7 @@ public class OpenGLChecker
     public static boolean programLinked(GL4 gl, int programID)
     {
         int[]  programLink = new int[1]; 
-        gl.glGetProgramiv(programID, GL4.GL_COMPILE_STATUS, programLink, 0); 
+        gl.glGetProgramiv(programID, GL4.GL_LINK_STATUS, programLink, 0); 
 
         return programLink[0] == 1 ? true : false;  
     }
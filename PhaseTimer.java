@@ -0,0 +1,232 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.jogamp.opengl.*;
+
+/**
+   Measure how much GPU time and CPU time each phase of a frame takes.
+<p>
+   A frame of {@link PipelineGL#render} is made up of three phases, in order:
+<ul>
+<li>{@link Phase#UPLOAD}, getting the translations and every model's
+    geometry onto the GPU,
+<li>{@link Phase#DRAW}, the draw calls, which run the vertex shader's
+    stages ({@link Model2Camera}, {@link Projection}) and rasterize,
+<li>{@link Phase#READBACK}, reading the rendered pixels back from the GPU.
+</ul>
+   The GPU runs the vertex stage and rasterization of a draw call
+   together, so those two cannot be timed separately from the CPU side.
+<p>
+   A {@code GL_TIMESTAMP} query is issued with {@code glQueryCounter} at
+   the start of the frame and at the end of each phase, and the GPU time
+   of a phase is the difference between two timestamps. Asking for a
+   query's result before the GPU has reached it would stall the CPU, so
+   each frame's queries go into one slot of a ring of {@link #ringSize}
+   slots and are read {@code ringSize - 1} frames later. If a slot's
+   results are still not available when the ring comes back around to
+   it, that frame is skipped (see {@link #getFramesSkipped}) rather than
+   waited for.
+<p>
+   The CPU time of a phase is measured with {@link System#nanoTime}
+   at the same points.
+*/
+public final class PhaseTimer
+{
+   /** The phases of a frame, in the order they happen. */
+   public enum Phase { UPLOAD, DRAW, READBACK }
+
+   /** When {@code false}, no queries are issued and nothing is measured. */
+   public static boolean enabled = false;
+
+   /** The number of frames of queries in flight, at least 1. */
+   public static int ringSize = 4;
+
+   private static final Phase[] phases = Phase.values();
+   private static final int numStamps = phases.length + 1; // the frame's start, then the end of each phase
+
+   private static final Map<Phase, Histogram> gpuTimes = new EnumMap<>(Phase.class);
+   private static final Map<Phase, Histogram> cpuTimes = new EnumMap<>(Phase.class);
+   static
+   {
+      for (final Phase phase : phases)
+      {
+         gpuTimes.put(phase, new Histogram());
+         cpuTimes.put(phase, new Histogram());
+      }
+   }
+
+   private static int[]    queryIDs = new int[0]; // numStamps queries for each slot of the ring
+   private static long[][] cpuStamps = new long[0][];
+   private static boolean[] issued   = new boolean[0];
+   private static int  slot = 0;
+   private static int  next = 0;          // the next timestamp of the current frame
+   private static boolean inFrame = false;
+
+   private static long framesMeasured = 0;
+   private static long framesSkipped  = 0;
+
+   /**
+      @param phase  a {@link Phase} of the frame
+      @return the histogram of the GPU time spent in {@code phase}, in nanoseconds
+   */
+   public static Histogram gpuTime(final Phase phase) { return gpuTimes.get(phase); }
+
+   /**
+      @param phase  a {@link Phase} of the frame
+      @return the histogram of the CPU time spent in {@code phase}, in nanoseconds
+   */
+   public static Histogram cpuTime(final Phase phase) { return cpuTimes.get(phase); }
+
+   /** @return the number of frames whose GPU times have been recorded */
+   public static long getFramesMeasured() { return framesMeasured; }
+
+   /** @return the number of frames whose GPU times were dropped to avoid a stall */
+   public static long getFramesSkipped() { return framesSkipped; }
+
+   /**
+      Forget every measurement.
+   */
+   public static void reset()
+   {
+      for (final Phase phase : phases)
+      {
+         gpuTimes.get(phase).reset();
+         cpuTimes.get(phase).reset();
+      }
+      framesMeasured = 0;
+      framesSkipped  = 0;
+   }
+
+   /**
+      Return a summary of every phase's GPU and CPU times.
+
+      @return one line per phase and clock
+   */
+   public static String report()
+   {
+      final StringBuilder sb = new StringBuilder();
+      for (final Phase phase : phases)
+      {
+         sb.append(String.format("%-8s gpu %s%n", phase, gpuTimes.get(phase)));
+         sb.append(String.format("%-8s cpu %s%n", phase, cpuTimes.get(phase)));
+      }
+      return sb.toString();
+   }
+
+
+   /**
+      Start timing a frame. The slot this frame will use is first
+      emptied of the results of the frame that used it last.
+
+      @param gl  the {@link GL4} object of the current context
+   */
+   static void beginFrame(final GL4 gl)
+   {
+      if (!enabled)
+      {
+         return;
+      }
+      if (issued.length != Math.max(1, ringSize))
+      {
+         allocate(gl);
+      }
+
+      slot = (slot + 1) % issued.length;
+      if (issued[slot])
+      {
+         collect(gl, slot);
+         issued[slot] = false;
+      }
+
+      next = 0;
+      inFrame = true;
+      stamp(gl);
+   }
+
+   /**
+      Mark the end of one phase of the current frame.
+
+      @param gl     the {@link GL4} object of the current context
+      @param phase  the {@link Phase} that just ended
+   */
+   static void endPhase(final GL4 gl, final Phase phase)
+   {
+      if (!enabled || !inFrame || next != phase.ordinal() + 1)
+      {
+         return; // timing was turned on in the middle of a frame
+      }
+      stamp(gl);
+      if (phase == phases[phases.length - 1])
+      {
+         issued[slot] = true;
+         inFrame = false;
+      }
+   }
+
+
+   private static void stamp(final GL4 gl)
+   {
+      //https://docs.gl/gl4/glQueryCounter
+      gl.glQueryCounter(queryIDs[slot * numStamps + next], GL4.GL_TIMESTAMP);
+      cpuStamps[slot][next] = System.nanoTime();
+      next += 1;
+   }
+
+   // Record a finished frame's times, or skip it if the GPU has not gotten that far.
+   private static void collect(final GL4 gl, final int s)
+   {
+      final int[] available = new int[1];
+      //https://docs.gl/gl4/glGetQueryObject
+      gl.glGetQueryObjectiv(queryIDs[s * numStamps + numStamps - 1], GL4.GL_QUERY_RESULT_AVAILABLE, available, 0);
+      if (available[0] == GL4.GL_FALSE)
+      {
+         framesSkipped += 1;
+         return;
+      }
+
+      final long[] gpuStamps = new long[numStamps];
+      for (int i = 0; i < numStamps; ++i)
+      {
+         gl.glGetQueryObjectui64v(queryIDs[s * numStamps + i], GL4.GL_QUERY_RESULT, gpuStamps, i);
+      }
+      for (final Phase phase : phases)
+      {
+         final int i = phase.ordinal();
+         gpuTimes.get(phase).record(gpuStamps[i + 1] - gpuStamps[i]);
+         cpuTimes.get(phase).record(cpuStamps[s][i + 1] - cpuStamps[s][i]);
+      }
+      framesMeasured += 1;
+   }
+
+   private static void allocate(final GL4 gl)
+   {
+      if (queryIDs.length > 0)
+      {
+         //https://docs.gl/gl4/glDeleteQueries
+         gl.glDeleteQueries(queryIDs.length, queryIDs, 0);
+      }
+      //https://docs.gl/gl4/glGenQueries
+      final int size = Math.max(1, ringSize);
+      queryIDs  = new int[size * numStamps];
+      gl.glGenQueries(queryIDs.length, queryIDs, 0);
+      cpuStamps = new long[size][numStamps];
+      issued    = new boolean[size];
+      slot = 0;
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private PhaseTimer() {
+      throw new AssertionError();
+   }
+}
@@ -0,0 +1,313 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import renderer.scene.*;
+import renderer.framebuffer.*;
+
+/**
+   A renderer that runs entirely on the CPU, with no OpenGL.
+<p>
+   This renderer takes the same {@link Scene} and {@link FrameBuffer}
+   as {@link PipelineGL} and sends every {@link Position} through the
+   same stages that the GPU runs,
+<ol>
+<li>{@link Model2Camera#model2camera}, translate the model into camera coordinates,
+<li>{@link Projection#project}, project onto the image plane,
+<li>{@link Viewport#imagePlane2pixelPlane}, map to the logical pixel-plane,
+<li>{@link Rasterize#rasterize}, draw the primitives into the viewport.
+</ol>
+   The first three stages are fused into one pass, {@link Model2PixelPlane},
+   that reads each position's {@link CompiledMesh} and writes only the
+   pixel-plane coordinates, into one pair of arrays that is packed with
+   the vertices of every position and reused from frame to frame. No
+   vertex of one position depends on any other vertex, so the vertices
+   are transformed in parallel, in chunks of {@link #chunkSize}. The
+   rasterize stage writes into the shared {@link FrameBuffer.Viewport},
+   so it is parallelized by screen tiles instead, see {@link Rasterize_Tiles}.
+<p>
+   A position's {@link CompiledMesh} is built the first time its model is
+   rendered and is reused until the model changes. A model edited in
+   place (a vertex moved, or a primitive replaced with another one) is
+   noticed by {@link CompiledMesh#of}, so its new geometry is drawn.
+<p>
+   Every render keeps its positions and packed coordinates in arrays
+   of its own, which the calling thread reuses for its next render, so
+   different threads may render into different {@link FrameBuffer}s at
+   the same time.
+<p>
+   A render can be given a {@link Trace}. The positions that it selects
+   are left out of the fused pass and are sent through the separate
+   stages one at a time, on the calling thread, each stage making a new
+   {@link Model} that is logged by {@link PipelineLoggerGL}. The positions
+   are still drawn in the scene's order: each run of untraced positions
+   between two traced ones goes through the fused pass of its own. The
+   traced primitives are rasterized by the same loops as every other
+   primitive, so a trace never changes which pixels are drawn.
+<p>
+   {@link PipelineGL#render} uses this renderer when
+   {@link PipelineGL#backend} is {@link Backend#CPU}, or when it is
+   {@link Backend#AUTO} and there is no GL4 profile on this machine.
+*/
+public final class PipelineCPU
+{
+   /** When {@code false}, every stage runs on the calling thread. */
+   public static boolean parallel = true;
+
+   /** The number of vertices that each parallel task transforms. */
+   public static int chunkSize = 4096;
+
+   // Each thread reuses its own Frame from render to render, see Rasterize_Tiles.
+   private static final ThreadLocal<Frame> frames = ThreadLocal.withInitial(Frame::new);
+
+   /**
+      Mutate the {@link FrameBuffer}'s default {@link FrameBuffer.Viewport}
+      so that it holds the rendered image of the {@link Scene} object.
+
+      @param scene  {@link Scene} object to render
+      @param fb     {@link FrameBuffer} to hold rendered image of the {@link Scene}
+   */
+   public static void render(final Scene scene, final FrameBuffer fb)
+   {
+      render(scene, fb.vp, null); // render into the default viewport
+   }
+
+   /**
+      Mutate the {@link FrameBuffer}'s default {@link FrameBuffer.Viewport}
+      so that it holds the rendered image of the {@link Scene} object, and
+      log the parts of the render that the {@link Trace} selects.
+
+      @param scene  {@link Scene} object to render
+      @param fb     {@link FrameBuffer} to hold rendered image of the {@link Scene}
+      @param trace  {@link Trace} that selects what to log, or {@code null} to log nothing
+   */
+   public static void render(final Scene scene, final FrameBuffer fb, final Trace trace)
+   {
+      render(scene, fb.vp, trace); // render into the default viewport
+   }
+
+   /**
+      Mutate the {@link FrameBuffer}'s given {@link FrameBuffer.Viewport}
+      so that it holds the rendered image of the {@link Scene} object.
+
+      @param scene  {@link Scene} object to render
+      @param vp     {@link FrameBuffer.Viewport} to hold rendered image of the {@link Scene}
+   */
+   public static void render(final Scene scene, final FrameBuffer.Viewport vp)
+   {
+      render(scene, vp, null);
+   }
+
+   /**
+      Mutate the {@link FrameBuffer}'s given {@link FrameBuffer.Viewport}
+      so that it holds the rendered image of the {@link Scene} object, and
+      log the parts of the render that the {@link Trace} selects.
+      <p>
+      The viewport is first cleared to its background color, just as
+      {@link PipelineGL} replaces the whole viewport with its image.
+
+      @param scene  {@link Scene} object to render
+      @param vp     {@link FrameBuffer.Viewport} to hold rendered image of the {@link Scene}
+      @param trace  {@link Trace} that selects what to log, or {@code null} to log nothing
+   */
+   public static void render(final Scene scene,
+                             final FrameBuffer.Viewport vp,
+                             final Trace trace)
+   {
+      // Start from the background color, as the GPU's image does.
+      vp.clearVP();
+
+      Frame frame = frames.get();
+      if (frame.inUse)
+      {
+         frame = new Frame();
+      }
+      frame.inUse = true;
+      try
+      {
+         // Draw the positions in order, each traced position on its own
+         // and each run of untraced positions in one fused pass.
+         final List<Position> positions = scene.positionList;
+         int from = 0;
+         for (int i = 0; i < positions.size(); ++i)
+         {
+            final Position position = positions.get(i);
+            if ( trace != null
+              && position.getModel().visible
+              && trace.tracesPosition(position) )
+            {
+               renderFused(scene, positions.subList(from, i), vp, frame);
+               renderTraced(scene, position, PixelSink.of(vp), trace);
+               from = i + 1;
+            }
+         }
+         renderFused(scene, positions.subList(from, positions.size()), vp, frame);
+      }
+      finally
+      {
+         frame.inUse = false;
+      }
+   }
+
+
+   // Send every visible position of the list through the fused pass.
+   private static void renderFused(final Scene scene,
+                                   final List<Position> positions,
+                                   final FrameBuffer.Viewport vp,
+                                   final Frame frame)
+   {
+      if (positions.isEmpty())
+      {
+         return;
+      }
+
+      // Look up each visible position's mesh, on this thread, so the
+      // vertex tasks do not contend for CompiledMesh's lock, and give
+      // the mesh its own range of the packed coordinate arrays.
+      final int n = positions.size();
+      if (frame.meshes.length < n)
+      {
+         frame.meshes       = new CompiledMesh[n];
+         frame.translations = new Vector[n];
+         frame.offsets      = new int[n];
+      }
+      final CompiledMesh[] meshes       = frame.meshes;
+      final Vector[]       translations = frame.translations;
+      final int[]          offsets      = frame.offsets;
+      final int chunk = Math.max(1, chunkSize);
+      int count = 0;
+      int numVertexes = 0;
+      int numChunks = 0;
+      for (final Position position : positions)
+      {
+         final Model model = position.getModel();
+         if ( ! model.visible )
+         {
+            continue;
+         }
+         final CompiledMesh mesh = CompiledMesh.of(model);
+         meshes[count]       = mesh;
+         translations[count] = position.getTranslation();
+         offsets[count]      = numVertexes;
+         numVertexes += mesh.numVertexes;
+         numChunks   += (mesh.numVertexes + chunk - 1) / chunk;
+         ++count;
+      }
+      if (frame.xPP.length < numVertexes)
+      {
+         frame.xPP = new double[numVertexes];
+         frame.yPP = new double[numVertexes];
+      }
+      if (frame.chunkMesh.length < numChunks)
+      {
+         frame.chunkMesh = new int[numChunks];
+         frame.chunkFrom = new int[numChunks];
+      }
+      final int[] chunkMesh = frame.chunkMesh;
+      final int[] chunkFrom = frame.chunkFrom;
+      int c = 0;
+      for (int i = 0; i < count; ++i)
+      {
+         for (int from = 0; from < meshes[i].numVertexes; from += chunk)
+         {
+            chunkMesh[c] = i;
+            chunkFrom[c] = from;
+            ++c;
+         }
+      }
+
+      // 1, 2, 3. Transform every visible vertex to the pixel-plane in one pass.
+      final boolean perspective = scene.camera.perspective;
+      final double[] x = frame.xPP;
+      final double[] y = frame.yPP;
+      (parallel ? IntStream.range(0, numChunks).parallel()
+                : IntStream.range(0, numChunks))
+         .forEach(k -> {
+            final int i = chunkMesh[k];
+            final int from = chunkFrom[k];
+            final int to = Math.min(from + chunk, meshes[i].numVertexes);
+            Model2PixelPlane.model2pixelPlane(meshes[i], from, to,
+                                              translations[i], perspective,
+                                              vp, x, y, offsets[i]);
+         });
+
+      // 4. Rasterize every visible primitive into pixels.
+      final int argb = Color.white.getRGB();
+      final PixelSink sink = PixelSink.of(vp);
+      if (parallel)
+      {
+         Rasterize_Tiles.rasterize(meshes, offsets, count, x, y, argb, sink);
+      }
+      else
+      {
+         for (int i = 0; i < count; ++i)
+         {
+            Rasterize.rasterize(meshes[i], x, y, offsets[i], argb, sink);
+         }
+      }
+
+      // Do not keep the scene's models reachable from here.
+      Arrays.fill(meshes, 0, count, null);
+      Arrays.fill(translations, 0, count, null);
+   }
+
+
+   // Send a traced position through the stages one at a time,
+   // each stage producing a new Model, and log every stage.
+   private static void renderTraced(final Scene scene,
+                                    final Position position,
+                                    final PixelSink sink,
+                                    final Trace trace)
+   {
+      final FrameBuffer.Viewport vp = sink.getViewport();
+      PipelineLoggerGL.logMessage("==== Render position: " + position.name + " ====");
+      PipelineLoggerGL.logVertexList("0. Model      ", position.getModel());
+
+      // 1. Translate the model into camera coordinates.
+      final Model model1 = Model2Camera.model2camera(position);
+      PipelineLoggerGL.logVertexList("1. Camera     ", model1);
+
+      // 2. Project onto the image plane.
+      final Model model2 = Projection.project(model1, scene.camera);
+      PipelineLoggerGL.logVertexList("2. Projected  ", model2);
+
+      // 3. Map to the logical pixel-plane.
+      final Model model3 = Viewport.imagePlane2pixelPlane(model2, vp);
+      PipelineLoggerGL.logVertexList("3. Pixel-plane", model3);
+
+      // 4. Rasterize the primitives into pixels.
+      Rasterize.rasterize(model3, sink, trace);
+   }
+
+
+   // The visible positions of one render, the packed pixel-plane
+   // coordinates of their vertices, and the parallel vertex tasks.
+   private static final class Frame
+   {
+      private CompiledMesh[] meshes = new CompiledMesh[0];
+      private Vector[] translations = new Vector[0];
+      private int[]    offsets      = new int[0];
+      private double[] xPP          = new double[0];
+      private double[] yPP          = new double[0];
+      private int[]    chunkMesh    = new int[0];
+      private int[]    chunkFrom    = new int[0];
+
+      private boolean inUse = false;
+   }
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private PipelineCPU() {
+      throw new AssertionError();
+   }
+}
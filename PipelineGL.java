@@ -8,7 +8,13 @@ package renderer.pipelineGL;
 
 import java.awt.Color;
 import java.nio.*;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import renderer.scene.*;
 import renderer.scene.primitives.*;
@@ -29,6 +35,27 @@ import com.jogamp.common.nio.Buffers;
 */
 public final class PipelineGL
 {
+      /**
+         When {@code true}, pack the whole scene into one vertex arena and one
+         index arena and submit it with multi-draw-indirect calls (see {@link SceneArena}).
+      */
+      public static boolean compileScene = false;
+
+      /**
+         When {@code true}, the perspective divide is done in double precision
+         (see {@link ShaderFeature#DOUBLE_PRECISION}).
+      */
+      public static boolean doublePrecision = true;
+
+      /**
+         Which implementation renders the scene. With {@link Backend#AUTO},
+         scenes are rendered by {@link PipelineCPU} when this machine has
+         no GL4 profile.
+      */
+      public static Backend backend = Backend.AUTO;
+
+      private static Boolean glAvailable; // whether a GL4 profile exists, asked for only once
+
       private static GLCapabilities glCap;             // the capabilities of the gl profile
       private static GLProfile      glProf;            // the gl profile being used , gl4
       private static GL4            gl;                // the gl4 object
@@ -36,42 +63,37 @@ public final class PipelineGL
       private static GLDrawableFactory       glFact;         // used to create the pbuffer for offscreen rendering
       private static GLOffscreenAutoDrawable glPixelBuffer;  // the pbuffer for offscreen rendering
 
-      private static       int gpuProgramID; 
       private static final int[] vao = new int[1]; // the main buffer id that all vertex info gets bound to
-      private static final int[] vbo = new int[2]; // the buffer id's for the vertex attributes ie data and indexes 
-      private static       int vertexVBOID;    // the buffer id for the vertex info
-      private static       int indexVBOID;     // the buffer id for the index info 
-      private static       int vertexAttribID;
-      private static       int transUniformID;     // the uniform id for the translation info
-      private static final int numCoordsPerPoint = 3;//4; 
-
-      private static final String[] vertexShaderSourceCode1 =
-      {
-         "#version 450 \n",
-         "layout (location=0) in vec3 vertex; \n",
-         "uniform vec3 translationVector; \n",
-         "vec4 model2Camera(); \n", 
-         "vec4 projection(); \n"
-      };
 
-      private static final String[] vertexShaderSourceCode2 =
-      {
-         "void main(void) \n",
-         "{ \n",
-         "gl_Position = model2Camera();\n",
-         "gl_Position = project();\n",
-         "} \n"
-      };
+      // the vertex shader's attributes have fixed layout locations, so they are the same in every program variant
+      private static final int vertexAttribID = 0;
+      private static final int transAttribID  = 1; // the attribute id for the per-instance translation
+      private static final int sizeAttribID   = 2; // the attribute id for the per-vertex point size
 
-      private static final int verCode1Size = vertexShaderSourceCode1.length;
-      private static final int verCode2Size = vertexShaderSourceCode2.length;
-      private static final int mod2CamSize  = Model2Camera.model2Camera.length;
-      private static final int projectSize  = Projection.project.length; 
+      private static final int[] instanceVBO = new int[1]; // the buffer id for every position's translation
+      private static       FloatBuffer translations;       // the client copy of the per-instance translations
+      private static       int drawCallsLastFrame = 0;
+      private static final int numCoordsPerPoint = 3;//4; 
 
-      private static String[] vertexShaderSourceCode = new String[verCode1Size +
-                                                                  mod2CamSize +
-                                                                  projectSize +
-                                                                  verCode2Size];
+      private static       ShaderGraph         shaderGraph;    // every program variant of the vertex shader
+      private static       ShaderGraph.Program currentProgram; // the variant in use
+      private static       Set<ShaderFeature>  sceneFeatures = EnumSet.noneOf(ShaderFeature.class);
+      private static       int programSwitchesLastFrame = 0;
+
+      private static       ByteBuffer pixelBuffer;        // the buffer the finished frame is read back into
+      private static       long       readbackCount = 0;  // the number of frames read back from the gpu
+      private static       int        readbacksLastFrame = 0;
+
+      // the last stage of the vertex shader, which sizes each point to the (2r+1) square that
+      // Rasterize_Clip_Point fills, so points of every radius draw together
+      private static final ShaderStage sizePoint = new ShaderStage(
+         "sizePoint",
+         EnumSet.noneOf(ShaderFeature.class),
+         variant -> new String[]{"layout (location=2) in float pointSize;"},
+         variant -> new String[]{},
+         variant -> new String[]{"gl_PointSize = pointSize;",
+                                 "return v;"}
+      );
 
       private static final String [] fragmentShaderSourceCode =
       {
@@ -102,186 +124,403 @@ public final class PipelineGL
       */
       public static void render(final Scene scene, final FrameBuffer.Viewport vp)
       {
+         if(useCPU())
+         {
+            PipelineCPU.render(scene, vp);
+            return;
+         }
+
+         readbacksLastFrame = 0;
+
+         drawScene(scene, vp);
+
+         // every position has been drawn, so read the finished frame back exactly once
+         readbackFrame(vp);
+         PhaseTimer.endPhase(gl, PhaseTimer.Phase.READBACK);
+      }
+
+      /**
+         Start rendering the {@link Scene} into the {@link FrameBuffer}'s
+         default {@link FrameBuffer.Viewport} without waiting for the GPU
+         to finish the frame.
+         <p>
+         The frame is read back into a ring of pixel-pack buffers (see
+         {@link ReadbackRing}), so the next frame can be submitted while
+         this one is still being transferred. The returned future completes,
+         on this thread, during a later call to {@code renderAsync},
+         {@link #pollAsync} or {@link #finishAsync}. The {@link FrameBuffer}
+         must not be used until its future has completed.
+
+         @param scene  {@link Scene} object to render
+         @param fb     {@link FrameBuffer} to hold rendered image of the {@link Scene}
+         @return a future that completes with {@code fb} once the rendered pixels are in it
+      */
+      public static CompletableFuture<FrameBuffer> renderAsync(final Scene scene, final FrameBuffer fb)
+      {
+         return renderAsync(scene, fb.vp);
+      }
+
+      /**
+         Start rendering the {@link Scene} into the given
+         {@link FrameBuffer.Viewport} without waiting for the GPU
+         to finish the frame.
+
+         @param scene  {@link Scene} object to render
+         @param vp     {@link FrameBuffer.Viewport} to hold rendered image of the {@link Scene}
+         @return a future that completes with {@code vp}'s {@link FrameBuffer} once the rendered pixels are in it
+      */
+      public static CompletableFuture<FrameBuffer> renderAsync(final Scene scene, final FrameBuffer.Viewport vp)
+      {
+         if(useCPU())
+         {
+            finishAsync(); // frames complete in the order they were submitted
+            PipelineCPU.render(scene, vp);
+            return CompletableFuture.completedFuture(vp.getFrameBuffer());
+         }
+
+         if(gl != null)
+         {
+            ReadbackRing.poll(gl); // hand back any earlier frames that have already landed
+         }
+
+         readbacksLastFrame = 0;
+
+         drawScene(scene, vp);
+
+         readbackCount      += 1;
+         readbacksLastFrame += 1;
+         final CompletableFuture<FrameBuffer> frame = ReadbackRing.submit(gl, vp);
+         PhaseTimer.endPhase(gl, PhaseTimer.Phase.READBACK);
+         return frame;
+      }
+
+      /**
+         Complete the futures of every asynchronous frame whose pixels
+         have already landed, without waiting for the GPU.
+      */
+      public static void pollAsync()
+      {
+         if(gl != null)
+         {
+            ReadbackRing.poll(gl);
+         }
+      }
+
+      /**
+         Wait for every asynchronous frame still in flight and
+         complete its future.
+      */
+      public static void finishAsync()
+      {
+         if(gl != null)
+         {
+            ReadbackRing.finish(gl);
+         }
+      }
+
+      // Decide whether this frame is rendered by PipelineCPU instead of OpenGL.
+      private static boolean useCPU()
+      {
+         if(backend == Backend.AUTO && glAvailable == null)
+         {
+            glAvailable = GLProfile.isAvailable("GL4");
+            if(!glAvailable)
+            {
+               System.err.println("PipelineGL: no GL4 profile is available, rendering on the CPU");
+            }
+         }
+         return backend == Backend.CPU
+            || (backend == Backend.AUTO && !glAvailable);
+      }
+
+      private static void drawScene(final Scene scene, final FrameBuffer.Viewport vp)
+      {
+         // the features every draw of this frame shares
+         sceneFeatures = EnumSet.noneOf(ShaderFeature.class);
+         if(!scene.camera.perspective)
+         {
+            sceneFeatures.add(ShaderFeature.PARALLEL_PROJECTION);
+         }
+         if(doublePrecision)
+         {
+            sceneFeatures.add(ShaderFeature.DOUBLE_PRECISION);
+         }
 
          if(gl == null)
          {   
             createOpenGLFramebuffer(vp);
-            gpuProgramID = createOpenGLShaders();
+            createOpenGLShaders();
+            createOpenGLVertexArray();
          }
          else
          {
+            OpenGLChecker.beginFrame(gl);
             if(vp.hasBeenCleared)
             {
                gl.glClear(GL4.GL_COLOR_BUFFER_BIT | GL4.GL_DEPTH_BUFFER_BIT);
                gl.glClearColor(vp.bgColorVP.getRed(), vp.bgColorVP.getGreen(), vp.bgColorVP.getBlue(), vp.bgColorVP.getAlpha());
             }
          }
+         PhaseTimer.beginFrame(gl);
 
-         //https://docs.gl/gl4/glGenVertexArrays
-         //https://docs.gl/gl4/glBindVertexArray
-         gl.glGenVertexArrays(vao.length, vao, 0); // generate the id for the vao and store it at index 0
-         gl.glBindVertexArray(vao[0]);             // bind the id for the vao, make the 0th vao active
-
-         //https://docs.gl/gl4/glGenBuffers
-         gl.glGenBuffers(vbo.length, vbo, 0); // generate the id and store them starting at index 0.
-         vertexVBOID   = vbo[0];
-         indexVBOID    = vbo[1]; 
-
-         vertexAttribID = gl.glGetAttribLocation(gpuProgramID, "vertex"); 
-
-         //https://docs.gl/gl4/glGetUniformLocation
-         transUniformID = gl.glGetUniformLocation(gpuProgramID, "translationVector"); // find the id for the translation vector
-
+         // group the positions by the model they reference, so each model is drawn
+         // once with one instance per position, keeping the dynamic models apart
+         final Map<Model, List<Position>> instances        = new LinkedHashMap<>();
+         final Map<Model, List<Position>> dynamicInstances = new LinkedHashMap<>();
          for(final Position position : scene.positionList)
          {
             final Model model = position.getModel();
-            
-            final int      numVertexes  = model.vertexList.size();
-            final double[] vertexCoords = new double[numVertexes * numCoordsPerPoint];
-
-            // this will need to be fixed later on assuming every primitive is a line segment 
-            //final int   numPrimitives = model.primitiveList.size();
-            int numPoints = 0; 
-            int numLines  = 0; 
-            for(final Primitive p : model.primitiveList)
-            {
-               if(p instanceof Point)
-                  numPoints += 1; 
-               else if(p instanceof LineSegment)
-                  numLines += 1; 
-            }
+            (StreamingBuffer.isDynamic(model) ? dynamicInstances : instances)
+               .computeIfAbsent(model, m -> new ArrayList<>()).add(position);
+         }
 
-            //final int[] vertexIndexes = new int[numPrimitives * 2]; 
-            final int[] lineIndexes = new int[numLines * 2]; 
-            final int[] pointIndexes = new int[numPoints * 2]; 
+         // the upload pass, everything this frame draws is put on the gpu first
+         uploadTranslations(scene.positionList.size(), instances, dynamicInstances);
 
-            // openGL seems to flip the x and y axis 
-            int vertexCoordIndex = 0;
-            for(final Vertex v : model.vertexList)
+         GeometryCache.beginFrame(); // nothing this frame looks up can be evicted until the next frame
+         final List<GeometryCache.Entry> geometries = new ArrayList<>();
+         if(compileScene)
+         {
+            SceneArena.update(gl, instances);
+         }
+         else
+         {
+            for(final Model model : instances.keySet())
             {
-               vertexCoords[vertexCoordIndex + 0] = v.x; 
-               vertexCoords[vertexCoordIndex + 1] = v.y; 
-               vertexCoords[vertexCoordIndex + 2] = v.z; 
-
-               vertexCoordIndex += numCoordsPerPoint; 
+               // find the model's geometry on the gpu, uploading it only if it is not already there
+               geometries.add(GeometryCache.lookup(gl, model));
             }
+         }
 
-            int lineIndex  = 0; 
-            int pointIndex = 0; 
-            for(final Primitive p : model.primitiveList)
+         if(!dynamicInstances.isEmpty())
+         {
+            // write the dynamic models straight into this frame's region of the streaming ring
+            StreamingBuffer.beginFrame(gl);
+            for(final Model model : dynamicInstances.keySet())
             {
-               if(p instanceof Point)
+               GeometryCache.Entry geometry = StreamingBuffer.write(model);
+               if(geometry == null) // the ring's region is full this frame
                {
-                  pointIndexes[pointIndex] = p.vIndexList.get(0); 
-                  pointIndex += 1; 
-               }
-               else if(p instanceof LineSegment)
-               {
-                  lineIndexes[lineIndex + 0] = p.vIndexList.get(0); 
-                  lineIndexes[lineIndex + 1] = p.vIndexList.get(1);
-                  
-                  lineIndex += 2; 
+                  GeometryCache.invalidate(model);
+                  geometry = GeometryCache.lookup(gl, model);
                }
+               geometries.add(geometry);
             }
+         }
+         PhaseTimer.endPhase(gl, PhaseTimer.Phase.UPLOAD);
 
-            final Vector transVector = position.getTranslation();
-            // copy the translation vector into the uniform
-            //https://docs.gl/gl4/glUniform
-            gl.glUniform3f(transUniformID, (float)transVector.x, (float)transVector.y, (float)transVector.z);
-            OpenGLChecker.CheckOpenGLError(gl); 
+         // the draw pass
+         drawCallsLastFrame = 0;
+         programSwitchesLastFrame = 0;
+         int baseInstance = 0;
+         int g = 0;
 
-            // make a buffer from the coordinates
-            DoubleBuffer vertBuffer = Buffers.newDirectDoubleBuffer(vertexCoords);
+         if(compileScene)
+         {
+            // the arena holds float32 vertices, which need no decoding, and is always instanced
+            useProgram(sceneFeatures);
 
-            // bind the vertex buffer id, make the vertex buffer active
-            //https://docs.gl/gl4/glBindBuffer
-            gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, vertexVBOID);
+            drawCallsLastFrame += SceneArena.draw(gl, instances, vertexAttribID, sizeAttribID);
+            for(final List<Position> group : instances.values())
+            {
+               baseInstance += group.size();
+            }
+         }
+         else
+         {
+            for(final List<Position> group : instances.values())
+            {
+               drawInstances(geometries.get(g++), group.size(), baseInstance);
+               baseInstance += group.size();
+            }
+         }
 
-            // copy the vertex buffer data
-            //https://docs.gl/gl4/glBufferData
-            gl.glBufferData(GL4.GL_ARRAY_BUFFER, vertBuffer.limit() * Buffers.SIZEOF_DOUBLE, vertBuffer, GL4.GL_STATIC_DRAW);
-      
-            if(numLines > 0)
+         if(!dynamicInstances.isEmpty())
+         {
+            for(final List<Position> group : dynamicInstances.values())
             {
-               // make a buffer from the indexes 
-               IntBuffer    indBuffer  = Buffers.newDirectIntBuffer(lineIndexes);
+               drawInstances(geometries.get(g++), group.size(), baseInstance);
+               baseInstance += group.size();
+            }
+            StreamingBuffer.endFrame(gl);
+         }
+         PhaseTimer.endPhase(gl, PhaseTimer.Phase.DRAW);
+
+         OpenGLChecker.checkFrame(gl); 
+      }
+
+      // Draw a model's lines and points once for each of its instances.
+      private static void drawInstances(final GeometryCache.Entry geometry,
+                                        final int numInstances,
+                                        final int baseInstance)
+      {
+         // pick the smallest program variant that can draw this model
+         final Set<ShaderFeature> variant = EnumSet.noneOf(ShaderFeature.class);
+         variant.addAll(sceneFeatures);
+         if(geometry.format == VertexFormat.INT16)
+         {
+            variant.add(ShaderFeature.QUANTIZED_VERTICES);
+         }
+         if(numInstances == 1)
+         {
+            variant.add(ShaderFeature.UNIFORM_TRANSLATION);
+         }
+         useProgram(variant);
 
-               // bind the index buffer id, make the index buffer active
-               //https://docs.gl/gl4/glBindBuffer
-               //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_8_1_eng_web.html#13
-               gl.glBindBuffer(GL4.GL_ELEMENT_ARRAY_BUFFER, indexVBOID);
+         // bind the model's vertex buffer and say that it is associated with attribute 0, layout = 0,
+         // in whichever format the model was uploaded with
+         //https://docs.gl/gl4/glBindBuffer
+         //https://docs.gl/gl4/glVertexAttribPointer
+         gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, geometry.vertexBufferID);
+         gl.glVertexAttribPointer(vertexAttribID, numCoordsPerPoint, geometry.format.glType, geometry.format.normalized, geometry.format.stride, geometry.vertexByteOffset);
+         gl.glVertexAttribPointer(sizeAttribID, 1, GL4.GL_FLOAT, false, 0, geometry.pointSizeByteOffset);
 
-               // copy the index buffer data
-               //https://docs.gl/gl4/glBufferData
-               //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_8_1_eng_web.html#13
-               gl.glBufferData(GL4.GL_ELEMENT_ARRAY_BUFFER, indBuffer.limit() * Buffers.SIZEOF_INT, indBuffer, GL4.GL_STATIC_DRAW);
+         if(variant.contains(ShaderFeature.QUANTIZED_VERTICES))
+         {
+            final float[] scale  = geometry.vertexScale;
+            final float[] offset = geometry.vertexOffset;
+            gl.glUniform3f(currentProgram.uniform(gl, "vertexScale"),  scale[0],  scale[1],  scale[2]);
+            gl.glUniform3f(currentProgram.uniform(gl, "vertexOffset"), offset[0], offset[1], offset[2]);
+            OpenGLChecker.checkCall(gl);
+         }
+         if(variant.contains(ShaderFeature.UNIFORM_TRANSLATION))
+         {
+            // the single instance's translation is already in the client copy of the instance buffer
+            final int t = baseInstance * numCoordsPerPoint;
+            gl.glUniform3f(currentProgram.uniform(gl, "translation"),
+                           translations.get(t + 0), translations.get(t + 1), translations.get(t + 2));
+            OpenGLChecker.checkCall(gl);
+         }
 
-               // make the vertex variable in the vertex shader active
-               //https://docs.gl/gl4/glEnableVertexAttribArray
-               gl.glEnableVertexAttribArray(vertexAttribID);
+         // bind the model's index buffer, the line indexes come first then the point indexes
+         //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_8_1_eng_web.html#13
+         gl.glBindBuffer(GL4.GL_ELEMENT_ARRAY_BUFFER, geometry.indexBufferID);
 
-               // say that the vertex buffer is associated with attribute 0, layout = 0 
-               //https://docs.gl/gl4/glVertexAttribPointer
-               gl.glVertexAttribPointer(vertexAttribID, numCoordsPerPoint, GL4.GL_DOUBLE, false, 0, 0);
+         // baseInstance selects this group's translations from the instance buffer
+         //https://docs.gl/gl4/glDrawElementsInstancedBaseInstance
+         if(geometry.numLineIndexes > 0)
+         {
+            gl.glDrawElementsInstancedBaseInstance(GL4.GL_LINES, geometry.numLineIndexes, GL4.GL_UNSIGNED_INT, geometry.lineIndexOffset(),
+                                                   numInstances, baseInstance);
+            OpenGLChecker.checkCall(gl);
+            drawCallsLastFrame += 1;
+         }
 
-               //performTransformFeedback(vertBuffer, indBuffer, GL4.GL_LINES); 
+         // every point in one draw, the vertex shader sizes each one from the pointSize attribute
+         if(geometry.numPointIndexes > 0)
+         {
+            gl.glDrawElementsInstancedBaseInstance(GL4.GL_POINTS, geometry.numPointIndexes, GL4.GL_UNSIGNED_INT, geometry.pointIndexOffset(),
+                                                   numInstances, baseInstance);
+            OpenGLChecker.checkCall(gl);
+            drawCallsLastFrame += 1;
+         }
+      }
 
-               gl.glDrawElements(GL4.GL_LINES, indBuffer.limit(), GL4.GL_UNSIGNED_INT, 0);
-            }
+      // Copy every position's translation into the instance buffer, in group order.
+      @SafeVarargs
+      private static void uploadTranslations(final int numPositions,
+                                             final Map<Model, List<Position>>... groupings)
+      {
+         if(translations == null || translations.capacity() < numPositions * numCoordsPerPoint)
+         {
+            translations = Buffers.newDirectFloatBuffer(Math.max(numPositions, 1) * numCoordsPerPoint);
+         }
+         translations.clear();
 
-            if(numPoints > 0)
+         for(final Map<Model, List<Position>> instances : groupings)
+         {
+            for(final List<Position> group : instances.values())
             {
-               // make a buffer from the indexes 
-               IntBuffer    indBuffer  = Buffers.newDirectIntBuffer(pointIndexes);
-
-               // bind the index buffer id, make the index buffer active
-               //https://docs.gl/gl4/glBindBuffer
-               //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_8_1_eng_web.html#13
-               gl.glBindBuffer(GL4.GL_ELEMENT_ARRAY_BUFFER, indexVBOID);
-
-               // copy the index buffer data
-               //https://docs.gl/gl4/glBufferData
-               //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_8_1_eng_web.html#13
-               gl.glBufferData(GL4.GL_ELEMENT_ARRAY_BUFFER, indBuffer.limit() * Buffers.SIZEOF_INT, indBuffer, GL4.GL_STATIC_DRAW);
-
-               // make the vertex variable in the vertex shader active
-               //https://docs.gl/gl4/glEnableVertexAttribArray
-               gl.glEnableVertexAttribArray(vertexAttribID);
-
-               // say that the vertex buffer is associated with attribute 0, layout = 0 
-               //https://docs.gl/gl4/glVertexAttribPointer
-               gl.glVertexAttribPointer(vertexAttribID, numCoordsPerPoint, GL4.GL_DOUBLE, false, 0, 0);
-   
-               Point aPoint = (Point)model.primitiveList.get(pointIndexes[0]);
-               float pointSize = aPoint.radius; 
-               gl.glPointSize(pointSize);
+               for(final Position position : group)
+               {
+                  final Vector transVector = position.getTranslation();
+                  translations.put((float)transVector.x);
+                  translations.put((float)transVector.y);
+                  translations.put((float)transVector.z);
+               }
+            }
+         }
+         translations.flip();
+
+         // re-specify the whole buffer so the driver can orphan last frame's copy instead of waiting on it
+         //https://docs.gl/gl4/glBufferData
+         gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, instanceVBO[0]);
+         gl.glBufferData(GL4.GL_ARRAY_BUFFER, (long)translations.limit() * Buffers.SIZEOF_FLOAT, translations, GL4.GL_STREAM_DRAW);
+         gl.glVertexAttribPointer(transAttribID, numCoordsPerPoint, GL4.GL_FLOAT, false, 0, 0);
+         OpenGLChecker.checkCall(gl);
+      }
 
-               //performTransformFeedback(vertBuffer, indBuffer, GL4.GL_POINTS); 
+      /**
+         Return the number of draw calls issued by the most recent frame.
+         {@link Position}s that share a {@link Model} are drawn with one
+         instanced draw call, so this grows with the number of distinct
+         models in the {@link Scene}, not with the number of positions.
 
-               gl.glDrawElements(GL4.GL_POINTS, indBuffer.limit(), GL4.GL_UNSIGNED_INT, 0); 
-            }
+         @return the number of draw calls in the last frame
+      */
+      public static int getDrawCallsLastFrame()
+      {
+         return drawCallsLastFrame;
+      }
 
-            // make the buffer to store the gl rendered data
-            ByteBuffer pixelBuffer = GLBuffers.newDirectByteBuffer(vp.getWidthVP() * vp.getHeightVP() * 4);
+      /**
+         Return the number of times the most recent frame switched between
+         shader program variants (see {@link ShaderGraph}).
 
-            // read the data starting at x = 0, y = 0, through the width and height into the pixelBuffer
-            //https://docs.gl/gl4/glReadPixels
-            gl.glReadPixels(0, 0, vp.getWidthVP(), vp.getHeightVP(), GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, pixelBuffer);
+         @return the number of {@code glUseProgram} calls in the last frame
+      */
+      public static int getProgramSwitchesLastFrame()
+      {
+         return programSwitchesLastFrame;
+      }
 
-            OpenGLChecker.CheckOpenGLError(gl); 
+      /**
+         Return the number of times {@link #render} has read the rendered
+         frame back from the GPU. Each call to {@code render} reads its
+         frame back exactly once, no matter how many {@link Position}s
+         the {@link Scene} has.
 
-            // create an int view of the pixel buffer for use with the viewport
-            final IntBuffer pixelIntBuffer = pixelBuffer.asIntBuffer();
+         @return the number of frame readbacks since the renderer started
+      */
+      public static long getReadbackCount()
+      {
+         return readbackCount;
+      }
 
-            // copy the pixelBuffer into the framebuffer
-            for(int x = 0; x < vp.getWidthVP(); x += 1)
-            {
-               for(int y = 0; y < vp.getHeightVP(); y += 1)
-               {
-                  vp.setPixelVP(x, y, pixelIntBuffer.get());
-               }
-            }
+      /**
+         Return the number of readbacks performed by the most recent
+         call to {@link #render}.
+
+         @return the number of readbacks in the last frame, which should always be 1
+      */
+      public static int getReadbacksLastFrame()
+      {
+         return readbacksLastFrame;
+      }
+
+      private static void readbackFrame(FrameBuffer.Viewport vp)
+      {
+         final int numBytes = vp.getWidthVP() * vp.getHeightVP() * 4;
+
+         // make the buffer to store the gl rendered data, reusing it when the viewport size is unchanged
+         if(pixelBuffer == null || pixelBuffer.capacity() != numBytes)
+         {
+            pixelBuffer = GLBuffers.newDirectByteBuffer(numBytes);
          }
+         pixelBuffer.clear();
+
+         // read the data starting at x = 0, y = 0, through the width and height into the pixelBuffer,
+         // as 0xAARRGGBB ints so that the pixels need no channel swizzle
+         //https://docs.gl/gl4/glReadPixels
+         gl.glReadPixels(0, 0, vp.getWidthVP(), vp.getHeightVP(), PixelTransfer.GL_FORMAT, PixelTransfer.GL_TYPE, pixelBuffer);
+
+         OpenGLChecker.checkCall(gl); 
+
+         // copy the pixelBuffer into the framebuffer one whole row at a time
+         PixelTransfer.copyToViewport(pixelBuffer.asIntBuffer(), vp);
+
+         readbackCount      += 1;
+         readbacksLastFrame += 1;
       }
 
       private static void createOpenGLFramebuffer(FrameBuffer.Viewport vp)
@@ -294,10 +533,15 @@ public final class PipelineGL
 
          glFact = GLDrawableFactory.getFactory(glProf);
          glPixelBuffer = glFact.createOffscreenAutoDrawable(null, glCap, null, vp.getWidthVP(), vp.getHeightVP()); // create the pbuffer to be the vp width x vp height
+         if(OpenGLChecker.level == OpenGLChecker.Level.ASYNC)
+         {
+            glPixelBuffer.setContextCreationFlags(GLContext.CTX_OPTION_DEBUG); // so the driver reports everything to the debug callback
+         }
          glPixelBuffer.display();
          glPixelBuffer.getContext().makeCurrent(); // make this pbuffer current
 
          gl = glPixelBuffer.getGL().getGL4(); // get the gl object associated with the pbuffer
+         OpenGLChecker.beginFrame(gl);        // before any other GL call, so ASYNC sees this frame's errors
 
          final Color vpBGColor = vp.bgColorVP;
 
@@ -309,53 +553,65 @@ public final class PipelineGL
          }
       }
 
-      private static int createOpenGLShaders()
+      private static void createOpenGLVertexArray()
+      {
+         //https://docs.gl/gl4/glGenVertexArrays
+         //https://docs.gl/gl4/glBindVertexArray
+         gl.glGenVertexArrays(vao.length, vao, 0); // generate the id for the vao and store it at index 0
+         gl.glBindVertexArray(vao[0]);             // bind the id for the vao, make the 0th vao active
+
+         // make the vertex variable in the vertex shader active
+         //https://docs.gl/gl4/glEnableVertexAttribArray
+         gl.glEnableVertexAttribArray(vertexAttribID);
+         gl.glEnableVertexAttribArray(sizeAttribID);
+
+         // let the vertex shader size each point, so points of every radius draw together
+         //https://docs.gl/gl4/glEnable
+         gl.glEnable(GL4.GL_PROGRAM_POINT_SIZE);
+
+         // the translation advances once per instance instead of once per vertex
+         //https://docs.gl/gl4/glVertexAttribDivisor
+         gl.glGenBuffers(instanceVBO.length, instanceVBO, 0);
+         gl.glEnableVertexAttribArray(transAttribID);
+         gl.glVertexAttribDivisor(transAttribID, 1);
+      }
+
+      private static void createOpenGLShaders()
       {
-         // copy all the glsl code into one big array
-         System.arraycopy(vertexShaderSourceCode1,   0, vertexShaderSourceCode,    0,                            verCode1Size);
-         System.arraycopy(Model2Camera.model2Camera, 0, vertexShaderSourceCode, verCode1Size,                             mod2CamSize);
-         System.arraycopy(Projection.project,        0, vertexShaderSourceCode, verCode1Size + mod2CamSize,               projectSize);
-         System.arraycopy(vertexShaderSourceCode2,   0, vertexShaderSourceCode, verCode1Size + mod2CamSize + projectSize, verCode2Size);
-
-         System.out.println(Arrays.toString(vertexShaderSourceCode)); 
-
-         // create the vertex shader and get its id, set the source code, and compile it
-         // https://docs.gl/gl4/glCreateShader
-         //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_9_1_eng_web.html#47
-         final int vertexShaderID = gl.glCreateShader(GL4.GL_VERTEX_SHADER);
-
-         //https://docs.gl/gl4/glShaderSource     
-         //https://docs.gl/gl4/glCompileShader 
-         //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_9_1_eng_web.html#47
-         gl.glShaderSource(vertexShaderID, vertexShaderSourceCode.length, vertexShaderSourceCode, null);
-         gl.glCompileShader(vertexShaderID);
-
-         // create the fragment shader and get its id, set the source code, and compile it
-         final int fragmentShaderID = gl.glCreateShader(GL4.GL_FRAGMENT_SHADER);
-         gl.glShaderSource(fragmentShaderID, fragmentShaderSourceCode.length, fragmentShaderSourceCode, null);
-         gl.glCompileShader(fragmentShaderID);
-
-         // create the program and save its id, attach the compiled vertex and fragment shader, and link it all together
-         //https://docs.gl/gl4/glCreateProgram
-         //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_9_1_eng_web.html#47  
-         int gpuProgramID = gl.glCreateProgram();
-
-         //https://docs.gl/gl4/glAttachShader
-         gl.glAttachShader(gpuProgramID, vertexShaderID);
-         gl.glAttachShader(gpuProgramID, fragmentShaderID);
-         
          //https://docs.gl/gl4/glTransformFeedbackVaryings
          String[] vertexShaderOutputVariableName = //{"transVertex"};
                                                    {"gl_Position"}; 
-         gl.glTransformFeedbackVaryings(gpuProgramID, vertexShaderOutputVariableName.length, 
-                                        vertexShaderOutputVariableName, GL4.GL_INTERLEAVED_ATTRIBS);
-         OpenGLChecker.CheckOpenGLError(gl);
-         //https://docs.gl/gl4/glLinkProgram
-         //https://www.mathematik.uni-marburg.de/~thormae/lectures/graphics1/graphics_9_1_eng_web.html#47
-         gl.glLinkProgram(gpuProgramID);
-         gl.glUseProgram(gpuProgramID);
-      
-         return gpuProgramID;
+
+         // the vertex shader is composed from the pipeline stages, specialized for each draw's needs
+         shaderGraph = new ShaderGraph(fragmentShaderSourceCode, vertexShaderOutputVariableName,
+                                       VertexFormat.decodeVertex,
+                                       Model2Camera.model2Camera,
+                                       Projection.project,
+                                       sizePoint);
+
+         // start building every variant in the background, then wait only for the one the first frame needs
+         if(ShaderGraph.backgroundCompile)
+         {
+            final List<Set<ShaderFeature>> variants = shaderGraph.allVariants();
+            variants.add(0, shaderGraph.normalize(sceneFeatures)); // the first frame's variant goes first
+            shaderGraph.precompile(gl, variants);
+         }
+
+         currentProgram = null;
+         useProgram(sceneFeatures);
+      }
+
+      // Make the given variant's program current, building it if it has not been used before.
+      private static void useProgram(final Set<ShaderFeature> variant)
+      {
+         final ShaderGraph.Program program = shaderGraph.program(gl, variant);
+         if(program != currentProgram)
+         {
+            //https://docs.gl/gl4/glUseProgram
+            gl.glUseProgram(program.id());
+            currentProgram = program;
+            programSwitchesLastFrame += 1;
+         }
       }
    
       private static void performTransformFeedback(DoubleBuffer vertBuffer, IntBuffer indBuffer, int glPrimType)
@@ -391,7 +647,7 @@ public final class PipelineGL
          float[] feedbackArr = new float[feedbackArrSize]; 
          FloatBuffer feedback = Buffers.newDirectFloatBuffer(feedbackArr); 
          gl.glGetBufferSubData(GL4.GL_TRANSFORM_FEEDBACK_BUFFER, 0, feedback.limit() * Buffers.SIZEOF_FLOAT, feedback);
-         OpenGLChecker.CheckOpenGLError(gl); 
+         OpenGLChecker.checkCall(gl); 
          gl.glDisable(GL4.GL_RASTERIZER_DISCARD);  
          
          if(print)
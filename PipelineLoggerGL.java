@@ -14,24 +14,25 @@ import java.awt.Color;
 
 /**
    Methods used by the pipeline stages to log information.
+<p>
+   These methods always log. They are only called for the parts
+   of a render that a {@link Trace} selects, so a render with no
+   trace never calls them.
+<p>
+   While a {@link PixelLog} is open, the rasterized pixels are written
+   to it, as binary records, instead of being printed to stderr. Use
+   {@link PixelLogDecoder} to turn that file back into this logger's text.
 */
 public class PipelineLoggerGL
 {
-   public static boolean debugScene = false;
-   public static boolean debugPosition = false;
-
    /**
-      Use this logger's debug variables to determine
-      if the given message should be printed to stderr.
+      Print the given message to stderr.
 
       @param message  {@link String} to output to stderr
    */
    public static void logMessage(final String message)
    {
-      if (debugScene || debugPosition)
-      {
-         System.err.println( message );
-      }
+      System.err.println( message );
    }
 
 
@@ -44,14 +45,11 @@ public class PipelineLoggerGL
    */
    public static void logVertexList(final String stage, final Model model)
    {
-      if (debugScene || debugPosition)
+      int i = 0;
+      for (final Vertex v : model.vertexList)
       {
-         int i = 0;
-         for (final Vertex v : model.vertexList)
-         {
-            System.err.printf("%s: vIndex = %3d, %s\n", stage, i, v.toString());
-            ++i;
-         }
+         System.err.printf("%s: vIndex = %3d, %s\n", stage, i, v.toString());
+         ++i;
       }
    }
 
@@ -65,18 +63,15 @@ public class PipelineLoggerGL
    */
    public static void logPrimitiveList(final String stage, final Model model)
    {
-      if (debugScene || debugPosition)
+      if ( model.primitiveList.isEmpty() )
       {
-         if ( model.primitiveList.isEmpty() )
-         {
-            System.err.printf("%s: []\n", stage);
-         }
-         else
+         System.err.printf("%s: []\n", stage);
+      }
+      else
+      {
+         for (final Primitive p : model.primitiveList)
          {
-            for (final Primitive p : model.primitiveList)
-            {
-               System.err.printf("%s: %s\n", stage, p.toString());
-            }
+            System.err.printf("%s: %s\n", stage, p.toString());
          }
       }
    }
@@ -94,14 +89,11 @@ public class PipelineLoggerGL
                                    final Model model,
                                    final Primitive p)
    {
-      if (debugScene || debugPosition)
+      System.err.printf("%s: %s\n", stage, p.toString());
+      for (final int vIndex : p.vIndexList)
       {
-         System.err.printf("%s: %s\n", stage, p.toString());
-         for (final int vIndex : p.vIndexList)
-         {
-            final Vertex v = model.vertexList.get(vIndex);
-            System.err.printf("   vIndex = %3d, %s\n", vIndex, v.toString());
-         }
+         final Vertex v = model.vertexList.get(vIndex);
+         System.err.printf("   vIndex = %3d, %s\n", vIndex, v.toString());
       }
    }
 
@@ -122,20 +114,23 @@ public class PipelineLoggerGL
                                final int    x_vp, final int    y_vp,
                                final FrameBuffer.Viewport vp)
    {
-      if (debugScene || debugPosition)
+      if ( PixelLog.isOpen()
+        && PixelLog.pixel(PixelLog.DOUBLE_DOUBLE, ! clippedMessage.isBlank(),
+                          x_pp, y_pp, x_vp, y_vp, vp) )
       {
-         final int wVP = vp.getWidthVP();
-         final int hVP = vp.getHeightVP();
-         final int xVP = vp.vp_ul_x;
-         final int yVP = vp.vp_ul_y;
-         final FrameBuffer fb = vp.getFrameBuffer();
-         final int wFB = fb.getWidthFB();
-         final int hFB = fb.getHeightFB();
-         System.err.print(clippedMessage);
-         System.err.printf(
-         "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%9.4f, y_pp=%9.4f)  (x_vp=%4d, y_vp=%4d)\n",
-              wFB, hFB,       xVP,   yVP,   wVP, hVP,    x_pp,       y_pp,         x_vp,     y_vp);
+         return; // else the log was closed in the meantime
       }
+      final int wVP = vp.getWidthVP();
+      final int hVP = vp.getHeightVP();
+      final int xVP = vp.vp_ul_x;
+      final int yVP = vp.vp_ul_y;
+      final FrameBuffer fb = vp.getFrameBuffer();
+      final int wFB = fb.getWidthFB();
+      final int hFB = fb.getHeightFB();
+      System.err.print(clippedMessage);
+      System.err.printf(
+      "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%9.4f, y_pp=%9.4f)  (x_vp=%4d, y_vp=%4d)\n",
+           wFB, hFB,       xVP,   yVP,   wVP, hVP,    x_pp,       y_pp,         x_vp,     y_vp);
    }
 
 
@@ -155,20 +150,23 @@ public class PipelineLoggerGL
                                final int x_vp, final int    y_vp,
                                final FrameBuffer.Viewport vp)
    {
-      if (debugScene || debugPosition)
+      if ( PixelLog.isOpen()
+        && PixelLog.pixel(PixelLog.INT_DOUBLE, ! clippedMessage.isBlank(),
+                          x_pp, y_pp, x_vp, y_vp, vp) )
       {
-         final int wVP = vp.getWidthVP();
-         final int hVP = vp.getHeightVP();
-         final int xVP = vp.vp_ul_x;
-         final int yVP = vp.vp_ul_y;
-         final FrameBuffer fb = vp.getFrameBuffer();
-         final int wFB = fb.getWidthFB();
-         final int hFB = fb.getHeightFB();
-         System.err.print(clippedMessage);
-         System.err.printf(
-         "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%4d, y_pp=%9.4f)  (x_vp=%4d, y_vp=%4d)\n",
-              wFB, hFB,       xVP,   yVP,   wVP, hVP,    x_pp,     y_pp,         x_vp,     y_vp);
+         return; // else the log was closed in the meantime
       }
+      final int wVP = vp.getWidthVP();
+      final int hVP = vp.getHeightVP();
+      final int xVP = vp.vp_ul_x;
+      final int yVP = vp.vp_ul_y;
+      final FrameBuffer fb = vp.getFrameBuffer();
+      final int wFB = fb.getWidthFB();
+      final int hFB = fb.getHeightFB();
+      System.err.print(clippedMessage);
+      System.err.printf(
+      "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%4d, y_pp=%9.4f)  (x_vp=%4d, y_vp=%4d)\n",
+           wFB, hFB,       xVP,   yVP,   wVP, hVP,    x_pp,     y_pp,         x_vp,     y_vp);
    }
 
 
@@ -188,20 +186,23 @@ public class PipelineLoggerGL
                                final int    x_vp, final int y_vp,
                                final FrameBuffer.Viewport vp)
    {
-      if (debugScene || debugPosition)
+      if ( PixelLog.isOpen()
+        && PixelLog.pixel(PixelLog.DOUBLE_INT, ! clippedMessage.isBlank(),
+                          x_pp, y_pp, x_vp, y_vp, vp) )
       {
-         final int wVP = vp.getWidthVP();
-         final int hVP = vp.getHeightVP();
-         final int xVP = vp.vp_ul_x;
-         final int yVP = vp.vp_ul_y;
-         final FrameBuffer fb = vp.getFrameBuffer();
-         final int wFB = fb.getWidthFB();
-         final int hFB = fb.getHeightFB();
-         System.err.print(clippedMessage);
-         System.err.printf(
-         "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%9.4f, y_pp=%4d)  (x_vp=%4d, y_vp=%4d)\n",
-              wFB, hFB,       xVP,   yVP,   wVP, hVP,    x_pp,       y_pp,       x_vp,     y_vp);
+         return; // else the log was closed in the meantime
       }
+      final int wVP = vp.getWidthVP();
+      final int hVP = vp.getHeightVP();
+      final int xVP = vp.vp_ul_x;
+      final int yVP = vp.vp_ul_y;
+      final FrameBuffer fb = vp.getFrameBuffer();
+      final int wFB = fb.getWidthFB();
+      final int hFB = fb.getHeightFB();
+      System.err.print(clippedMessage);
+      System.err.printf(
+      "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%9.4f, y_pp=%4d)  (x_vp=%4d, y_vp=%4d)\n",
+           wFB, hFB,       xVP,   yVP,   wVP, hVP,    x_pp,       y_pp,       x_vp,     y_vp);
    }
 
 
@@ -0,0 +1,493 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import renderer.framebuffer.*;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+   A binary log of rasterized pixels, for debugging whole frames.
+<p>
+   Formatting a line of text for every pixel, the way
+   {@link PipelineLoggerGL#logPixel} does, makes a debugging run of a
+   full size scene take hours. While this log is open, {@code logPixel}
+   instead appends a fixed size binary record to a ring buffer that is
+   outside of the Java heap. Any number of threads can append at once
+   without a lock; each one claims the next slot of the ring with one
+   atomic increment. A background thread drains the ring, in order,
+   into the file, writing each run of completed records straight from
+   the ring. {@link PixelLogDecoder} reads the file
+   later and prints exactly the text that {@code logPixel} would have
+   printed.
+<p>
+   Every record is {@link #RECORD_SIZE} bytes, little-endian,
+<pre>{@code
+   offset  size  pixel record            viewport record   name record
+      0     1    type = PIXEL            type = VIEWPORT   type = NAME
+      1     1    pipeline stage
+      2     1    which logPixel() format
+      3     1    1 if clipped, else 0
+      4     4    viewport id             viewport id       model id
+      8     4    model id                fb width          length of the name
+     12     4    primitive index         fb height         the name, in UTF-8,
+     16     8    x_pp                    vp x, vp y        truncated to 28 bytes
+     24     8    y_pp                    vp width, height
+     32     4    x_vp
+     36     4    y_vp
+}</pre>
+   A viewport's dimensions, and a model's name, are written only once,
+   in a record that comes before any pixel record that uses its id.
+   The first record of the file is a header that holds {@link #VERSION}.
+<p>
+   When the ring is full, a thread that logs a pixel waits for the
+   background thread, so no record is ever dropped. {@link #close}
+   waits for every thread that is in the middle of logging a pixel
+   before it stops the background thread.
+*/
+public final class PixelLog
+{
+   /** The size of every record, in bytes. */
+   public static final int RECORD_SIZE = 40;
+
+   /** The version of the file format. */
+   public static final int VERSION = 1;
+
+   /** The number of records in the ring buffer, rounded up to a power of 2. */
+   public static int ringSize = 1 << 16;
+
+   /** The number of records that {@link PixelLogDecoder} maps from the file at a time. */
+   public static int mapSize = 1 << 20;
+
+   // record types
+   static final int HEADER   = 1;
+   static final int PIXEL    = 2;
+   static final int VIEWPORT = 3;
+   static final int NAME     = 4;
+
+   /** The pipeline stage of the pixels logged by the rasterizers. */
+   static final int RASTERIZE = 4;
+
+   // the three logPixel() formats
+   static final int DOUBLE_DOUBLE = 0; // a point
+   static final int INT_DOUBLE    = 1; // a line rasterized along the x-axis
+   static final int DOUBLE_INT    = 2; // a line rasterized along the y-axis
+
+   static final int NAME_BYTES = RECORD_SIZE - 12;
+
+   // The first four bytes of a record, written last, with release
+   // semantics, so that a non-zero header means the record is complete.
+   private static final VarHandle HEADER_INT =
+      MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+   private static volatile boolean open = false;
+   private static volatile int epoch = 0; // counts the files opened, so stale ids are not reused
+   private static final AtomicInteger inFlight = new AtomicInteger(); // threads appending a record
+
+   private static ByteBuffer ring;
+   private static int mask;
+   private static final AtomicLong head = new AtomicLong(); // the next sequence number to claim
+   private static volatile long tail;                       // the next sequence number to write
+
+   private static FileChannel channel;
+   private static Thread writer;
+   private static volatile boolean running;
+   private static volatile IOException failure;
+
+   private static final ConcurrentHashMap<String, Integer> viewportIds = new ConcurrentHashMap<>();
+   private static final ConcurrentHashMap<String, Integer> modelIds    = new ConcurrentHashMap<>();
+   private static final AtomicInteger nextViewportId = new AtomicInteger();
+   private static final AtomicInteger nextModelId    = new AtomicInteger();
+
+   // What each thread is rasterizing, and the last viewport it logged,
+   // in the file with the given epoch.
+   private static final class Context
+   {
+      int epoch = -1;
+      int model = -1;
+      int primitive = -1;
+      FrameBuffer.Viewport vp;
+      int vpId;
+      int wFB, hFB, xVP, yVP, wVP, hVP;
+   }
+   private static final ThreadLocal<Context> context = ThreadLocal.withInitial(Context::new);
+
+   /**
+      Start logging pixels to the given file, replacing its contents.
+
+      @param file  the file to write the log to
+      @throws IOException if the file cannot be opened
+      @throws IllegalStateException if the log is already open
+   */
+   public static synchronized void open(final Path file) throws IOException
+   {
+      if (open)
+      {
+         throw new IllegalStateException("PixelLog is already open");
+      }
+      channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+      final int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+      ring = ByteBuffer.allocateDirect(size * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      mask = size - 1;
+      head.set(0);
+      tail = 0;
+      failure = null;
+      viewportIds.clear();
+      modelIds.clear();
+      nextViewportId.set(0);
+      nextModelId.set(0);
+      epoch += 1;
+
+      final long seq = claim();
+      final int off = offset(seq);
+      ring.putInt(off + 4, VERSION);
+      publish(off, HEADER);
+
+      running = true;
+      writer = new Thread(PixelLog::drain, "PixelLog writer");
+      writer.setDaemon(true);
+      writer.start();
+      open = true;
+   }
+
+   /**
+      Write every logged pixel to the file and close it.
+
+      @throws IOException if the file could not be written
+   */
+   public static synchronized void close() throws IOException
+   {
+      if ( ! open )
+      {
+         return;
+      }
+      open = false;
+
+      // A thread that saw the log open may still be appending a record,
+      // and may be waiting for the writer to free a slot of the ring.
+      while (inFlight.get() != 0)
+      {
+         Thread.yield();
+      }
+
+      running = false;
+      LockSupport.unpark(writer);
+      boolean interrupted = false;
+      while (writer.isAlive())
+      {
+         try
+         {
+            writer.join();
+         }
+         catch (InterruptedException e)
+         {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+      {
+         Thread.currentThread().interrupt();
+      }
+      try
+      {
+         channel.close();
+      }
+      finally
+      {
+         writer = null;
+         ring = null;
+         channel = null;
+      }
+      if (failure != null)
+      {
+         throw failure;
+      }
+   }
+
+   /** @return {@code true} if pixels are being logged to a file */
+   public static boolean isOpen()
+   {
+      return open && failure == null;
+   }
+
+
+   /**
+      Record which primitive of which model the calling thread is
+      about to rasterize, so that its pixels can be traced back to it.
+
+      @param modelName  the name of the {@link renderer.scene.Model}
+      @param primitive  the index of the primitive in the model's primitive list
+   */
+   static void setPrimitive(final String modelName, final int primitive)
+   {
+      inFlight.incrementAndGet();
+      try
+      {
+         if ( ! isOpen() )
+         {
+            return;
+         }
+         final Context c = context();
+         c.model = modelIds.computeIfAbsent(modelName, PixelLog::defineName);
+         c.primitive = primitive;
+      }
+      finally
+      {
+         inFlight.decrementAndGet();
+      }
+   }
+
+
+   /**
+      Append one pixel record.
+
+      @param form     which {@link PipelineLoggerGL#logPixel} format the pixel is printed with
+      @param clipped  {@code true} if the pixel was clipped
+      @param x_pp     horizontal coordinate of the pixel in the pixel-plane
+      @param y_pp     vertical coordinate of the pixel in the pixel-plane
+      @param x_vp     horizontal coordinate of the pixel in the viewport
+      @param y_vp     vertical coordinate of the pixel in the viewport
+      @param vp       {@link FrameBuffer.Viewport} that the pixel is being placed in
+      @return {@code false} if the log is not open, so the pixel was not logged
+   */
+   static boolean pixel(final int form,
+                     final boolean clipped,
+                     final double x_pp, final double y_pp,
+                     final int    x_vp, final int    y_vp,
+                     final FrameBuffer.Viewport vp)
+   {
+      // Counted before open is checked, so that close() either
+      // stops this pixel or waits for it to be appended.
+      inFlight.incrementAndGet();
+      try
+      {
+         if ( ! isOpen() )
+         {
+            return false;
+         }
+         final Context c = context();
+         final int vpId = viewportId(c, vp);
+
+         final long seq = claim();
+         final int off = offset(seq);
+         ring.putInt   (off +  4, vpId);
+         ring.putInt   (off +  8, c.model);
+         ring.putInt   (off + 12, c.primitive);
+         ring.putDouble(off + 16, x_pp);
+         ring.putDouble(off + 24, y_pp);
+         ring.putInt   (off + 32, x_vp);
+         ring.putInt   (off + 36, y_vp);
+         publish(off, PIXEL | RASTERIZE << 8 | form << 16 | (clipped ? 1 : 0) << 24);
+         return true;
+      }
+      finally
+      {
+         inFlight.decrementAndGet();
+      }
+   }
+
+
+   // The calling thread's context, forgotten if it is from an earlier file.
+   private static Context context()
+   {
+      final Context c = context.get();
+      if (c.epoch != epoch)
+      {
+         c.epoch = epoch;
+         c.model = -1;
+         c.primitive = -1;
+         c.vp = null;
+      }
+      return c;
+   }
+
+
+   // The id of a viewport's current dimensions, checked against
+   // the last viewport this thread logged before it is looked up.
+   private static int viewportId(final Context c, final FrameBuffer.Viewport vp)
+   {
+      final FrameBuffer fb = vp.getFrameBuffer();
+      if ( vp == c.vp
+        && fb.getWidthFB() == c.wFB && fb.getHeightFB() == c.hFB
+        && vp.vp_ul_x == c.xVP && vp.vp_ul_y == c.yVP
+        && vp.getWidthVP() == c.wVP && vp.getHeightVP() == c.hVP )
+      {
+         return c.vpId;
+      }
+      c.vp  = vp;
+      c.wFB = fb.getWidthFB();
+      c.hFB = fb.getHeightFB();
+      c.xVP = vp.vp_ul_x;
+      c.yVP = vp.vp_ul_y;
+      c.wVP = vp.getWidthVP();
+      c.hVP = vp.getHeightVP();
+      final String key = c.wFB + "," + c.hFB + "," + c.xVP + ","
+                       + c.yVP + "," + c.wVP + "," + c.hVP;
+      c.vpId = viewportIds.computeIfAbsent(key, k -> defineViewport(c));
+      return c.vpId;
+   }
+
+   // Write the record that gives a new viewport id its dimensions.
+   private static int defineViewport(final Context c)
+   {
+      final int id = nextViewportId.getAndIncrement();
+      final long seq = claim();
+      final int off = offset(seq);
+      ring.putInt(off +  4, id);
+      ring.putInt(off +  8, c.wFB);
+      ring.putInt(off + 12, c.hFB);
+      ring.putInt(off + 16, c.xVP);
+      ring.putInt(off + 20, c.yVP);
+      ring.putInt(off + 24, c.wVP);
+      ring.putInt(off + 28, c.hVP);
+      publish(off, VIEWPORT);
+      return id;
+   }
+
+   // Write the record that gives a new model id its name.
+   private static int defineName(final String name)
+   {
+      final int id = nextModelId.getAndIncrement();
+      final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+      final int length = Math.min(bytes.length, NAME_BYTES);
+      final long seq = claim();
+      final int off = offset(seq);
+      ring.putInt(off + 4, id);
+      ring.putInt(off + 8, length);
+      for (int i = 0; i < length; ++i)
+      {
+         ring.put(off + 12 + i, bytes[i]);
+      }
+      publish(off, NAME);
+      return id;
+   }
+
+
+   // Claim the next slot of the ring, waiting while the ring is full.
+   private static long claim()
+   {
+      final long seq = head.getAndIncrement();
+      for (int spins = 0; seq - tail > mask; ++spins)
+      {
+         if (spins < 100)
+         {
+            Thread.onSpinWait();
+         }
+         else // let the background thread run
+         {
+            Thread.yield();
+         }
+      }
+      return seq;
+   }
+
+   private static int offset(final long seq)
+   {
+      return (int)(seq & mask) * RECORD_SIZE;
+   }
+
+   private static void publish(final int off, final int header)
+   {
+      HEADER_INT.setRelease(ring, off, header);
+   }
+
+
+   // The background thread. Write each run of completed records, in
+   // sequence order, from the ring to the end of the file, then free
+   // their slots in the ring. Nothing is mapped, so the file is always
+   // exactly as long as the records written to it.
+   private static void drain()
+   {
+      final ByteBuffer ring = PixelLog.ring;
+      final ByteBuffer run = ring.duplicate();
+      final int size = mask + 1;
+      try
+      {
+         long seq = tail;
+         while (running || seq < head.get())
+         {
+            // the completed records from seq up to the end of the ring
+            final int first = (int)(seq & mask);
+            int n = 0;
+            while ( first + n < size
+                 && (int)HEADER_INT.getAcquire(ring, (first + n) * RECORD_SIZE) != 0 )
+            {
+               ++n;
+            }
+            if (n == 0)
+            {
+               if (seq < head.get()) // claimed, but still being written
+               {
+                  Thread.yield();
+               }
+               else // the ring is empty
+               {
+                  LockSupport.parkNanos(50_000);
+               }
+               continue;
+            }
+
+            run.limit((first + n) * RECORD_SIZE).position(first * RECORD_SIZE);
+            long position = seq * RECORD_SIZE;
+            while (run.hasRemaining())
+            {
+               position += channel.write(run, position);
+            }
+
+            for (int i = first; i < first + n; ++i)
+            {
+               HEADER_INT.setRelease(ring, i * RECORD_SIZE, 0);
+            }
+            seq += n;
+            tail = seq;
+         }
+         channel.force(false);
+      }
+      catch (IOException e)
+      {
+         // Stop logging, but keep freeing slots so that
+         // no thread that is logging a pixel waits forever.
+         failure = e;
+         while (running || tail < head.get())
+         {
+            final int off = offset(tail);
+            if ((int)HEADER_INT.getAcquire(ring, off) != 0)
+            {
+               HEADER_INT.setRelease(ring, off, 0);
+               tail = tail + 1;
+            }
+            else
+            {
+               LockSupport.parkNanos(50_000);
+            }
+         }
+      }
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private PixelLog() {
+      throw new AssertionError();
+   }
+}
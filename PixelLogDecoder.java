@@ -0,0 +1,173 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+   Print a binary {@link PixelLog} file as the text that
+   {@link PipelineLoggerGL#logPixel} prints for each pixel.
+<p>
+   Run it as
+<pre>{@code
+   java renderer.pipelineGL.PixelLogDecoder [-v] pixels.log > pixels.txt
+}</pre>
+   With {@code -v}, each line is followed by the name of the model,
+   and the index of the primitive, that the pixel was rasterized from.
+*/
+public final class PixelLogDecoder
+{
+   /**
+      Decode a {@link PixelLog} file.
+
+      @param file     the binary log
+      @param out      where to print the text
+      @param verbose  {@code true} to print which model and primitive each pixel came from
+      @throws IOException if the file cannot be read, or is not a {@link PixelLog} file
+   */
+   public static void decode(final Path file,
+                             final PrintStream out,
+                             final boolean verbose) throws IOException
+   {
+      final List<int[]>  viewports = new ArrayList<>();
+      final List<String> names     = new ArrayList<>();
+
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+      {
+         final long size = channel.size();
+         final long regionSize = (long)PixelLog.mapSize * PixelLog.RECORD_SIZE;
+         for (long regionStart = 0; regionStart < size; regionStart += regionSize)
+         {
+            final MappedByteBuffer region =
+               channel.map(FileChannel.MapMode.READ_ONLY,
+                           regionStart,
+                           Math.min(regionSize, size - regionStart));
+            region.order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int off = 0; off + PixelLog.RECORD_SIZE <= region.limit(); off += PixelLog.RECORD_SIZE)
+            {
+               final int type = region.get(off + 0);
+               if (regionStart == 0 && off == 0)
+               {
+                  if (type != PixelLog.HEADER || region.getInt(off + 4) != PixelLog.VERSION)
+                  {
+                     throw new IOException(file + " is not a version "
+                                           + PixelLog.VERSION + " pixel log");
+                  }
+                  continue;
+               }
+
+               if (type == PixelLog.PIXEL)
+               {
+                  final int form    = region.get(off + 2);
+                  final boolean clipped = region.get(off + 3) != 0;
+                  final int[] v = viewports.get(region.getInt(off + 4));
+                  final double x_pp = region.getDouble(off + 16);
+                  final double y_pp = region.getDouble(off + 24);
+                  final int    x_vp = region.getInt(off + 32);
+                  final int    y_vp = region.getInt(off + 36);
+
+                  out.print(clipped ? "Clipped: " : "         ");
+                  if (form == PixelLog.INT_DOUBLE)
+                  {
+                     out.printf(
+                     "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%4d, y_pp=%9.4f)  (x_vp=%4d, y_vp=%4d)\n",
+                          v[0], v[1],     v[2],  v[3],  v[4], v[5], (int)x_pp,  y_pp,         x_vp,     y_vp);
+                  }
+                  else if (form == PixelLog.DOUBLE_INT)
+                  {
+                     out.printf(
+                     "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%9.4f, y_pp=%4d)  (x_vp=%4d, y_vp=%4d)\n",
+                          v[0], v[1],     v[2],  v[3],  v[4], v[5],  x_pp,   (int)y_pp,       x_vp,     y_vp);
+                  }
+                  else
+                  {
+                     out.printf(
+                     "fb_[w=%d,h=%d]  vp_[x=%4d, y=%4d, w=%d,h=%d]  (x_pp=%9.4f, y_pp=%9.4f)  (x_vp=%4d, y_vp=%4d)\n",
+                          v[0], v[1],     v[2],  v[3],  v[4], v[5],  x_pp,        y_pp,         x_vp,     y_vp);
+                  }
+                  if (verbose)
+                  {
+                     final int model = region.getInt(off + 8);
+                     out.printf("   model = %s, primitive = %d\n",
+                                (model < 0) ? "?" : names.get(model),
+                                region.getInt(off + 12));
+                  }
+               }
+               else if (type == PixelLog.VIEWPORT)
+               {
+                  final int id = region.getInt(off + 4);
+                  final int[] v = new int[6];
+                  for (int i = 0; i < 6; ++i)
+                  {
+                     v[i] = region.getInt(off + 8 + 4*i);
+                  }
+                  set(viewports, id, v);
+               }
+               else if (type == PixelLog.NAME)
+               {
+                  final int id = region.getInt(off + 4);
+                  final byte[] bytes = new byte[region.getInt(off + 8)];
+                  region.get(off + 12, bytes);
+                  set(names, id, new String(bytes, StandardCharsets.UTF_8));
+               }
+               else
+               {
+                  throw new IOException("unknown record type " + type
+                                        + " at byte " + (regionStart + off));
+               }
+            }
+         }
+      }
+      out.flush();
+   }
+
+   private static <T> void set(final List<T> list, final int index, final T element)
+   {
+      while (list.size() <= index)
+      {
+         list.add(null);
+      }
+      list.set(index, element);
+   }
+
+
+   /**
+      @param args  an optional {@code -v}, then the name of a {@link PixelLog} file
+      @throws IOException if the file cannot be read, or is not a {@link PixelLog} file
+   */
+   public static void main(String[] args) throws IOException
+   {
+      final boolean verbose = args.length == 2 && args[0].equals("-v");
+      if (args.length != (verbose ? 2 : 1))
+      {
+         System.err.println("usage: java renderer.pipelineGL.PixelLogDecoder [-v] <pixel log file>");
+         System.exit(1);
+      }
+      final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+      decode(Paths.get(args[args.length - 1]), out, verbose);
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private PixelLogDecoder() {
+      throw new AssertionError();
+   }
+}
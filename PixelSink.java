@@ -0,0 +1,203 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import renderer.framebuffer.*;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+   A rectangle of {@code int} ARGB pixels that the CPU rasterizers
+   write into.
+<p>
+   {@link Rasterize_Clip_Line} and {@link Rasterize_Clip_Point} clip
+   every primitive to the sink's rectangle before they draw it, so
+   a sink does not test its coordinates; a pixel outside of the
+   rectangle is an error in the caller. Each color is a packed
+   {@code 0xAARRGGBB} {@code int}, the layout of a {@link FrameBuffer}'s
+   pixel data, so no {@link java.awt.Color} object is created or
+   converted for any pixel.
+<p>
+   There are sinks for a {@link FrameBuffer.Viewport}, for a plain
+   {@code int[]}, and for an off-heap {@link IntBuffer}, for example
+   one that was mapped from a file or will be handed to native code.
+   Different threads may write different pixels of one sink at the
+   same time (see {@link Rasterize_Tiles}).
+*/
+public interface PixelSink
+{
+   /** @return the width of the sink's rectangle, in pixels */
+   int getWidth();
+
+   /** @return the height of the sink's rectangle, in pixels */
+   int getHeight();
+
+   /**
+      Set one pixel.
+
+      @param x     horizontal coordinate, from 0 at the left
+      @param y     vertical coordinate, from 0 at the top
+      @param argb  the pixel's color as {@code 0xAARRGGBB}
+   */
+   void setPixel(int x, int y, int argb);
+
+   /**
+      Set a horizontal span of pixels, from {@code xFrom} up to,
+      but not including, {@code xTo}.
+
+      @param y      vertical coordinate of the row, from 0 at the top
+      @param xFrom  the first pixel of the span
+      @param xTo    one past the last pixel of the span
+      @param argb   the pixels' color as {@code 0xAARRGGBB}
+   */
+   void fillRow(int y, int xFrom, int xTo, int argb);
+
+   /**
+      The {@link FrameBuffer.Viewport} that this sink writes into,
+      which is where debugging output says the pixels go.
+
+      @return the sink's {@link FrameBuffer.Viewport}, or {@code null} if it does not write into one
+   */
+   default FrameBuffer.Viewport getViewport()
+   {
+      return null;
+   }
+
+
+   /**
+      @param vp  a {@link FrameBuffer.Viewport}
+      @return a {@code PixelSink} that writes straight into {@code vp}'s part of its {@link FrameBuffer}'s pixel array
+   */
+   static PixelSink of(final FrameBuffer.Viewport vp)
+   {
+      return new ViewportSink(vp);
+   }
+
+   /**
+      @param pixels  a row-major array of at least {@code width * height} pixels
+      @param width   the number of pixels in a row
+      @param height  the number of rows
+      @return a {@code PixelSink} that writes into {@code pixels}
+   */
+   static PixelSink of(final int[] pixels, final int width, final int height)
+   {
+      return new ArraySink(pixels, width, height);
+   }
+
+   /**
+      @param pixels  a row-major buffer of at least {@code width * height} pixels, usually direct
+      @param width   the number of pixels in a row
+      @param height  the number of rows
+      @return a {@code PixelSink} that writes into {@code pixels}, without changing its position
+   */
+   static PixelSink of(final IntBuffer pixels, final int width, final int height)
+   {
+      return new BufferSink(pixels, width, height);
+   }
+
+
+   /** A sink that writes into a {@link FrameBuffer.Viewport}. */
+   final class ViewportSink implements PixelSink
+   {
+      private final FrameBuffer.Viewport vp;
+      private final int[] pixel_buffer;
+      private final int wFB;
+      private final int origin; // the index of the viewport's upper left pixel
+      private final int w, h;
+
+      ViewportSink(final FrameBuffer.Viewport vp)
+      {
+         final FrameBuffer fb = vp.getFrameBuffer();
+         this.vp = vp;
+         this.pixel_buffer = fb.pixel_buffer;
+         this.wFB = fb.getWidthFB();
+         this.origin = vp.vp_ul_y * wFB + vp.vp_ul_x;
+         this.w = vp.getWidthVP();
+         this.h = vp.getHeightVP();
+      }
+
+      @Override public int getWidth()  { return w; }
+      @Override public int getHeight() { return h; }
+      @Override public FrameBuffer.Viewport getViewport() { return vp; }
+
+      @Override
+      public void setPixel(final int x, final int y, final int argb)
+      {
+         pixel_buffer[origin + y * wFB + x] = argb;
+      }
+
+      @Override
+      public void fillRow(final int y, final int xFrom, final int xTo, final int argb)
+      {
+         final int row = origin + y * wFB;
+         Arrays.fill(pixel_buffer, row + xFrom, row + xTo, argb);
+      }
+   }
+
+   /** A sink that writes into a plain {@code int[]}. */
+   final class ArraySink implements PixelSink
+   {
+      private final int[] pixels;
+      private final int w, h;
+
+      ArraySink(final int[] pixels, final int width, final int height)
+      {
+         this.pixels = pixels;
+         this.w = width;
+         this.h = height;
+      }
+
+      @Override public int getWidth()  { return w; }
+      @Override public int getHeight() { return h; }
+
+      @Override
+      public void setPixel(final int x, final int y, final int argb)
+      {
+         pixels[y * w + x] = argb;
+      }
+
+      @Override
+      public void fillRow(final int y, final int xFrom, final int xTo, final int argb)
+      {
+         Arrays.fill(pixels, y * w + xFrom, y * w + xTo, argb);
+      }
+   }
+
+   /** A sink that writes into an {@link IntBuffer}, which may be off-heap. */
+   final class BufferSink implements PixelSink
+   {
+      private final IntBuffer pixels;
+      private final int w, h;
+
+      BufferSink(final IntBuffer pixels, final int width, final int height)
+      {
+         this.pixels = pixels;
+         this.w = width;
+         this.h = height;
+      }
+
+      @Override public int getWidth()  { return w; }
+      @Override public int getHeight() { return h; }
+
+      @Override
+      public void setPixel(final int x, final int y, final int argb)
+      {
+         pixels.put(y * w + x, argb);
+      }
+
+      @Override
+      public void fillRow(final int y, final int xFrom, final int xTo, final int argb)
+      {
+         final int row = y * w;
+         for (int x = xFrom; x < xTo; ++x)
+         {
+            pixels.put(row + x, argb);
+         }
+      }
+   }
+}
@@ -0,0 +1,79 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.nio.IntBuffer;
+
+import renderer.framebuffer.*;
+
+import com.jogamp.opengl.*;
+
+/**
+   Copy a frame that was read back from OpenGL into
+   a {@link FrameBuffer.Viewport}.
+<p>
+   The frame is read back with the format {@code GL_BGRA} and the type
+   {@code GL_UNSIGNED_INT_8_8_8_8_REV}. With that combination each pixel
+   arrives as one native-order {@code int} laid out as {@code 0xAARRGGBB},
+   which is exactly the layout of a {@link FrameBuffer}'s pixel data, so
+   no per-pixel channel swizzle is needed.
+<p>
+   The only remaining difference is that OpenGL stores row 0 at the bottom
+   of the image while a {@link FrameBuffer.Viewport} stores row 0 at the top.
+   So the copy walks the rows in reverse order, and each row is moved with
+   one bulk {@link IntBuffer#get(int[], int, int)} straight into the
+   {@link FrameBuffer}'s pixel array.
+*/
+public final class PixelTransfer
+{
+   /** The pixel format to pass to {@code glReadPixels}. */
+   public static final int GL_FORMAT = GL.GL_BGRA;
+
+   /** The pixel type to pass to {@code glReadPixels}. */
+   public static final int GL_TYPE = GL4.GL_UNSIGNED_INT_8_8_8_8_REV;
+
+   /**
+      Copy a bottom-to-top frame of {@code 0xAARRGGBB} pixels into
+      the given {@link FrameBuffer.Viewport}.
+      <p>
+      The {@link IntBuffer} must be in native byte order (which is
+      what {@code GLBuffers.newDirectByteBuffer} produces) and hold
+      at least {@code width * height} pixels of the viewport's size.
+
+      @param pixels  the frame as read back by {@code glReadPixels}
+      @param vp      {@link FrameBuffer.Viewport} to copy the frame into
+   */
+   public static void copyToViewport(final IntBuffer pixels,
+                                     final FrameBuffer.Viewport vp)
+   {
+      final FrameBuffer fb = vp.getFrameBuffer();
+      final int[] pixel_buffer = fb.pixel_buffer;
+      final int wFB = fb.getWidthFB();
+
+      final int w = vp.getWidthVP();
+      final int h = vp.getHeightVP();
+
+      for (int y = 0; y < h; ++y)
+      {
+         // OpenGL's first row is the bottom row of the viewport.
+         final int srcIndex = (h - 1 - y) * w;
+         final int dstIndex = (vp.vp_ul_y + y) * wFB + vp.vp_ul_x;
+
+         pixels.position(srcIndex);
+         pixels.get(pixel_buffer, dstIndex, w);
+      }
+      pixels.rewind();
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private PixelTransfer() {
+      throw new AssertionError();
+   }
+}
@@ -0,0 +1,272 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+
+/**
+   Keep linked GPU programs on disk, so that a new JVM can restore
+   its shader program instead of compiling and linking it from source.
+<p>
+   After a program is linked from source, {@link #save} asks the driver
+   for the program's binary with {@code glGetProgramBinary} and writes it
+   to a file in {@link #directory}. The next time the same program is
+   needed, {@link #load} hands that binary back to the driver with
+   {@code glProgramBinary}.
+<p>
+   A program binary is only meaningful to the driver that produced it.
+   So the file name is a SHA-256 hash of the program's GLSL source code
+   together with the {@code GL_VENDOR}, {@code GL_RENDERER} and
+   {@code GL_VERSION} strings. Changing the shaders, the GPU, or the
+   driver version gives a different key, and so a cache miss. A driver
+   is also allowed to reject a binary it produced itself (after a driver
+   update that kept the same version string, for example). When that
+   happens {@link #load} deletes the file and reports a miss, and the
+   caller falls back to compiling from source.
+<p>
+   {@link #load} and {@link #save} may be called from several threads,
+   each with its own context (see {@link ShaderGraph}).
+*/
+public final class ProgramCache
+{
+   /** When {@code false}, every program is compiled and linked from source. */
+   public static boolean enabled = true;
+
+   /** The directory that program binaries are stored in. */
+   public static Path directory = Paths.get(System.getProperty("user.home"),
+                                            ".cache", "renderer", "programs");
+
+   private static final String suffix = ".bin";
+
+   private static long hits   = 0;
+   private static long misses = 0;
+   private static long saves  = 0;
+
+   /**
+      Compute the cache key for a program built from the given GLSL
+      source code by the driver of the current context.
+
+      @param gl       the {@link GL4} object of the current context
+      @param sources  every piece of source code that goes into the program, in order
+      @return a hex string that identifies the program and the driver
+   */
+   public static String key(final GL4 gl, final String[]... sources)
+   {
+      final MessageDigest digest;
+      try
+      {
+         digest = MessageDigest.getInstance("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e) // every Java platform must support SHA-256
+      {
+         throw new AssertionError(e);
+      }
+
+      //https://docs.gl/gl4/glGetString
+      update(digest, gl.glGetString(GL4.GL_VENDOR));
+      update(digest, gl.glGetString(GL4.GL_RENDERER));
+      update(digest, gl.glGetString(GL4.GL_VERSION));
+      for (final String[] source : sources)
+      {
+         for (final String line : source)
+         {
+            update(digest, line);
+         }
+         digest.update((byte)0);
+      }
+
+      final StringBuilder hex = new StringBuilder();
+      for (final byte b : digest.digest())
+      {
+         hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+   }
+
+   /**
+      Create a program from its cached binary, if there is one
+      and the driver accepts it.
+
+      @param gl   the {@link GL4} object of the current context
+      @param key  the program's key, from {@link #key}
+      @return the id of a linked program, or 0 if the program must be built from source
+   */
+   public static synchronized int load(final GL4 gl, final String key)
+   {
+      final Path file = directory.resolve(key + suffix);
+      if (!enabled || !Files.isRegularFile(file))
+      {
+         misses += 1;
+         return 0;
+      }
+
+      final byte[] contents;
+      try
+      {
+         contents = Files.readAllBytes(file);
+      }
+      catch (IOException e)
+      {
+         System.err.println("ProgramCache: cannot read " + file + ": " + e);
+         misses += 1;
+         return 0;
+      }
+
+      // The file is the binary format, as a big-endian int, followed by the binary.
+      if (contents.length > 4)
+      {
+         final ByteBuffer bytes = ByteBuffer.wrap(contents);
+         final int binaryFormat = bytes.getInt();
+         final ByteBuffer binary = Buffers.newDirectByteBuffer(contents.length - 4);
+         binary.put(bytes).flip();
+
+         //https://docs.gl/gl4/glProgramBinary
+         final int programID = gl.glCreateProgram();
+         gl.glProgramBinary(programID, binaryFormat, binary, binary.limit());
+         if (OpenGLChecker.programLinked(gl, programID))
+         {
+            hits += 1;
+            return programID;
+         }
+         gl.glDeleteProgram(programID);
+      }
+
+      // The driver rejected the binary, so it will never be any use.
+      try
+      {
+         Files.deleteIfExists(file);
+      }
+      catch (IOException e)
+      {
+         System.err.println("ProgramCache: cannot delete " + file + ": " + e);
+      }
+      misses += 1;
+      return 0;
+   }
+
+   /**
+      Ask the driver to keep a program's binary retrievable. This must
+      be called before the program is linked from source, so that
+      {@link #save} can get the binary afterwards.
+
+      @param gl         the {@link GL4} object of the current context
+      @param programID  the id of a program that has not been linked yet
+   */
+   public static void prepare(final GL4 gl, final int programID)
+   {
+      //https://docs.gl/gl4/glProgramParameter
+      gl.glProgramParameteri(programID, GL4.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL4.GL_TRUE);
+   }
+
+   /**
+      Write a linked program's binary to the cache.
+      <p>
+      A failure to write the file is reported and otherwise ignored,
+      since the program itself is fine.
+
+      @param gl         the {@link GL4} object of the current context
+      @param programID  the id of a program that was linked from source
+      @param key        the program's key, from {@link #key}
+   */
+   public static synchronized void save(final GL4 gl, final int programID, final String key)
+   {
+      if (!enabled)
+      {
+         return;
+      }
+
+      final int[] binaryLength = new int[1];
+      gl.glGetProgramiv(programID, GL4.GL_PROGRAM_BINARY_LENGTH, binaryLength, 0);
+      if (binaryLength[0] <= 0) // the driver has no binary formats
+      {
+         return;
+      }
+
+      //https://docs.gl/gl4/glGetProgramBinary
+      final IntBuffer  length       = Buffers.newDirectIntBuffer(1);
+      final IntBuffer  binaryFormat = Buffers.newDirectIntBuffer(1);
+      final ByteBuffer binary       = Buffers.newDirectByteBuffer(binaryLength[0]);
+      gl.glGetProgramBinary(programID, binaryLength[0], length, binaryFormat, binary);
+
+      final byte[] contents = new byte[4 + length.get(0)];
+      final ByteBuffer bytes = ByteBuffer.wrap(contents);
+      bytes.putInt(binaryFormat.get(0));
+      binary.limit(length.get(0));
+      bytes.put(binary);
+
+      // Write to a temporary file and then rename it, so that another
+      // process starting up at the same time never reads half a file.
+      // If the write or the rename fails, delete the temporary file,
+      // so failed saves do not pile up in the cache directory.
+      final Path file = directory.resolve(key + suffix);
+      Path temp = null;
+      try
+      {
+         Files.createDirectories(directory);
+         temp = Files.createTempFile(directory, key, ".tmp");
+         Files.write(temp, contents);
+         Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+         temp = null;
+         saves += 1;
+      }
+      catch (IOException e)
+      {
+         System.err.println("ProgramCache: cannot write " + file + ": " + e);
+      }
+      finally
+      {
+         if (temp != null)
+         {
+            try
+            {
+               Files.deleteIfExists(temp);
+            }
+            catch (IOException e)
+            {
+               System.err.println("ProgramCache: cannot delete " + temp + ": " + e);
+            }
+         }
+      }
+   }
+
+   /** @return the number of programs restored from the cache */
+   public static long getHits() { return hits; }
+
+   /** @return the number of programs that had to be built from source */
+   public static long getMisses() { return misses; }
+
+   /** @return the number of program binaries written to the cache */
+   public static long getSaves() { return saves; }
+
+
+   private static void update(final MessageDigest digest, final String s)
+   {
+      digest.update(String.valueOf(s).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte)0);
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private ProgramCache() {
+      throw new AssertionError();
+   }
+}
@@ -10,6 +10,8 @@ import renderer.scene.*;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
    Project each {@link Vertex} of a {@link Model} from camera
@@ -72,29 +74,88 @@ import java.util.ArrayList;
 */
 public final class Projection
 {
+   /**
+      The vertex shader stage that projects each {@link Vertex}
+      to the {@link Camera}'s image plane {@code z = -1}.
+   */
+   public static final ShaderStage project = new ShaderStage(
+      "project",
+      EnumSet.of(ShaderFeature.PARALLEL_PROJECTION, ShaderFeature.DOUBLE_PRECISION),
+      variant -> new String[]{},
+      variant -> new String[]{},
+      Projection::projectBody
+   );
+
    /**
       Project each {@link Vertex} from a {@link Model} to
       the {@link Camera}'s image plane {@code z = -1}.
       <p>
       This pipeline stage assumes that the model's vertices
       have all been transformed to the camera coordinate system.
+      It is the CPU version of {@link #project}, used by {@link PipelineCPU}.
 
       @param model  {@link Model} whose {@link Vertex} objects are to be projected onto the image plane
       @param camera  a reference to the {@link Scene}'s {@link Camera} object
       @return a new {@link Model} object holding the projected {@link Vertex} objects
    */
-   public static String[] project = 
+   public static Model project(final Model model, final Camera camera)
+   {
+      // A new vertex list to hold the projected vertices.
+      final List<Vertex> newVertexList =
+                            new ArrayList<>(model.vertexList.size());
+
+      // Replace each Vertex object with one that
+      // contains projected image-plane coordinates.
+      for (final Vertex v : model.vertexList)
+      {
+         if ( camera.perspective )
+         {
+            newVertexList.add(
+              new Vertex(
+                v.x / -v.z,  // xp = xc / -zc
+                v.y / -v.z,  // yp = yc / -zc
+                -1));        // zp = -1
+         }
+         else
+         {
+            newVertexList.add(
+              new Vertex(
+                v.x,  // xp = xc
+                v.y,  // yp = yc
+                0));  // zp = 0
+         }
+      }
+
+      // Return to the renderer a modified model.
+      return new Model(newVertexList,
+                       model.primitiveList,
+                       model.name,
+                       model.visible);
+   }
+
+
+   private static String[] projectBody(final Set<ShaderFeature> variant)
    {
       //https://stackoverflow.com/questions/31686664/perspective-divide-why-use-the-w-component
       //https://stackoverflow.com/questions/17269686/why-do-we-need-perspective-division
       //https://stackoverflow.com/questions/49782148/whats-the-fourth-dimension-in-a-glsl-gl-position
-      "vec4 project() \n", 
-      "{ \n",
-      "double z = gl_Position.z;\n",
-      "\treturn vec4(gl_Position.x/-z, gl_Position.y/-z, gl_Position.z/-z, 1); \n",  
-      "} \n"
-   };
-
+      if (variant.contains(ShaderFeature.PARALLEL_PROJECTION))
+      {
+         // x_p = x_c and y_p = y_c, there is no divide to do in any precision
+         return new String[]{"return vec4(v.x, v.y, -1, 1);"};
+      }
+      else if (variant.contains(ShaderFeature.DOUBLE_PRECISION))
+      {
+         return new String[]{"dvec3 p = dvec3(v.xyz);",
+                             "double z = p.z;",
+                             "return vec4(vec3(p / -z), 1);"};
+      }
+      else
+      {
+         return new String[]{"float z = v.z;",
+                             "return vec4(v.x/-z, v.y/-z, v.z/-z, 1);"};
+      }
+   }
 
 
    // Private default constructor to enforce noninstantiable class.
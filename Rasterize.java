@@ -9,7 +9,9 @@ package renderer.pipelineGL;
 import renderer.scene.*;
 import renderer.scene.primitives.*;
 import renderer.framebuffer.*;
-import static renderer.pipeline.PipelineLogger.*;
+import static renderer.pipelineGL.PipelineLoggerGL.*;
+
+import java.awt.Color;
 
 /**
    Rasterize a projected geometric {@link Primitive}
@@ -17,7 +19,6 @@ import static renderer.pipeline.PipelineLogger.*;
 */
 public class Rasterize
 {
-   public static boolean debug = false;
    public static boolean doClipping = true;
 
    /**
@@ -30,18 +31,97 @@ public class Rasterize
    public static void rasterize(final Model model,
                                 final FrameBuffer.Viewport vp)
    {
+      rasterize(model, PixelSink.of(vp));
+   }
+
+
+   /**
+      Rasterize every projected, visible {@link Primitive}
+      into pixels in a {@link PixelSink}.
+      <p>
+      The primitives of a {@link Model} have no color of their own,
+      so they are all drawn in white.
+
+      @param model  {@link Model} that contains clipped {@link Primitive}s
+      @param sink   {@link PixelSink} to hold rasterized pixels
+   */
+   public static void rasterize(final Model model,
+                                final PixelSink sink)
+   {
+      final int c = Color.white.getRGB();
+
       // Rasterize each visible primitive into pixels.
       for (final Primitive p : model.primitiveList)
       {
-         logPrimitive("4. Rasterize", model, p);
+         if (p instanceof LineSegment)
+         {
+            Rasterize_Clip_Line.rasterize(model, (LineSegment)p, c, sink);
+         }
+         else if (p instanceof Point)
+         {
+            Rasterize_Clip_Point.rasterize(model, (Point)p, c, sink);
+         }
+         else // should never get here
+         {
+            System.err.println("Incorrect primitive: " + p);
+         }
+      }
+   }
+
+
+   /**
+      Rasterize every projected, visible {@link Primitive}
+      into pixels in a {@link PixelSink}, the same way as
+      {@link #rasterize(Model, PixelSink)}, but log each
+      primitive, and each of its pixels, that the {@link Trace}
+      selects.
+
+      @param model  {@link Model} that contains clipped {@link Primitive}s
+      @param sink   {@link PixelSink} to hold rasterized pixels
+      @param trace  {@link Trace} that selects the primitives and pixels to log
+   */
+   public static void rasterize(final Model model,
+                                final PixelSink sink,
+                                final Trace trace)
+   {
+      final int c = Color.white.getRGB();
+
+      // Rasterize each visible primitive into pixels.
+      int index = 0;
+      for (final Primitive p : model.primitiveList)
+      {
+         final boolean traced = trace.tracesPrimitive(index);
+         if (traced)
+         {
+            logPrimitive("4. Rasterize", model, p);
+            if ( PixelLog.isOpen() )
+            {
+               PixelLog.setPrimitive(model.name, index);
+            }
+         }
+         ++index;
 
          if (p instanceof LineSegment)
          {
-            Rasterize_Clip_Line.rasterize(model, (LineSegment)p, vp);
+            if (traced)
+            {
+               Rasterize_Clip_Line.trace(model, (LineSegment)p, c, sink, trace);
+            }
+            else
+            {
+               Rasterize_Clip_Line.rasterize(model, (LineSegment)p, c, sink);
+            }
          }
          else if (p instanceof Point)
          {
-            Rasterize_Clip_Point.rasterize(model, (Point)p, vp);
+            if (traced)
+            {
+               Rasterize_Clip_Point.trace(model, (Point)p, c, sink, trace);
+            }
+            else
+            {
+               Rasterize_Clip_Point.rasterize(model, (Point)p, c, sink);
+            }
          }
          else // should never get here
          {
@@ -51,6 +131,89 @@ public class Rasterize
    }
 
 
+   /**
+      Rasterize every primitive of a {@link CompiledMesh}
+      into pixels in a {@link FrameBuffer.Viewport}.
+      <p>
+      The mesh supplies the primitives' vertex indexes, and
+      {@code x} and {@code y} hold the mesh's vertices after they
+      have been projected into the logical pixel-plane.
+
+      @param mesh  {@link CompiledMesh} whose primitives are rasterized
+      @param x     the projected x-coordinate of each of the mesh's vertices
+      @param y     the projected y-coordinate of each of the mesh's vertices
+      @param vp    {@link FrameBuffer.Viewport} to hold rasterized pixels
+   */
+   public static void rasterize(final CompiledMesh mesh,
+                                final double[] x,
+                                final double[] y,
+                                final FrameBuffer.Viewport vp)
+   {
+      rasterize(mesh, x, y, Color.white.getRGB(), PixelSink.of(vp));
+   }
+
+
+   /**
+      Rasterize every primitive of a {@link CompiledMesh}, in
+      the given color, into pixels in a {@link PixelSink}.
+
+      @param mesh  {@link CompiledMesh} whose primitives are rasterized
+      @param x     the projected x-coordinate of each of the mesh's vertices
+      @param y     the projected y-coordinate of each of the mesh's vertices
+      @param argb  the primitives' color as {@code 0xAARRGGBB}
+      @param sink  {@link PixelSink} to hold rasterized pixels
+   */
+   public static void rasterize(final CompiledMesh mesh,
+                                final double[] x,
+                                final double[] y,
+                                final int argb,
+                                final PixelSink sink)
+   {
+      rasterize(mesh, x, y, 0, argb, sink);
+   }
+
+
+   /**
+      Rasterize every primitive of a {@link CompiledMesh} whose
+      projected vertices are packed into {@code x} and {@code y}
+      along with the vertices of other meshes, starting at index
+      {@code offset} (see {@link Model2PixelPlane}).
+
+      @param mesh    {@link CompiledMesh} whose primitives are rasterized
+      @param x       the projected x-coordinates, with the mesh's vertex 0 at {@code x[offset]}
+      @param y       the projected y-coordinates, with the mesh's vertex 0 at {@code y[offset]}
+      @param offset  the index in {@code x} and {@code y} of the mesh's vertex 0
+      @param argb    the primitives' color as {@code 0xAARRGGBB}
+      @param sink    {@link PixelSink} to hold rasterized pixels
+   */
+   static void rasterize(final CompiledMesh mesh,
+                         final double[] x,
+                         final double[] y,
+                         final int offset,
+                         final int argb,
+                         final PixelSink sink)
+   {
+      final int[] lines = mesh.lineIndexes;
+      for (int i = 0; i < lines.length; i += 2)
+      {
+         final int v0 = offset + lines[i + 0];
+         final int v1 = offset + lines[i + 1];
+         Rasterize_Clip_Line.rasterize(x[v0], y[v0], x[v1], y[v1], argb, sink);
+      }
+
+      final int[] points = mesh.pointIndexes;
+      for (int run = 0; run < mesh.numPointRuns(); ++run)
+      {
+         final int radius = mesh.pointRunRadius[run];
+         for (int i = mesh.pointRunStart[run]; i < mesh.pointRunStart[run + 1]; ++i)
+         {
+            final int v = offset + points[i];
+            Rasterize_Clip_Point.rasterize(x[v], y[v], radius, argb, sink);
+         }
+      }
+   }
+
+
 
    // Private default constructor to enforce noninstantiable class.
    // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
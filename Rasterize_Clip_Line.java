@@ -9,9 +9,10 @@ package renderer.pipelineGL;
 import renderer.scene.*;
 import renderer.scene.primitives.LineSegment;
 import renderer.framebuffer.*;
-import static renderer.pipeline.PipelineLogger.*;
+import static renderer.pipelineGL.PipelineLoggerGL.*;
 
 import java.awt.Color;
+import java.math.BigInteger;
 
 /**
    Rasterize a projected {@link LineSegment} into pixels in
@@ -115,51 +116,244 @@ public final class Rasterize_Clip_Line
    public static void rasterize(final Model model,
                                 final LineSegment ls,
                                 final FrameBuffer.Viewport vp)
+   {
+      final int vIndex0 = ls.vIndexList.get(0);
+      final int vIndex1 = ls.vIndexList.get(1);
+      final Vertex v0 = model.vertexList.get(vIndex0);
+      final Vertex v1 = model.vertexList.get(vIndex1);
+
+      rasterize(v0.x, v0.y, v1.x, v1.y, vp);
+   }
+
+
+   /**
+      Rasterize and clip a projected {@link LineSegment}, in the
+      given color, into pixels in a {@link PixelSink}.
+
+      @param model  {@link Model} that the {@link LineSegment} {@code ls} comes from
+      @param ls     {@link LineSegment} to rasterize into the {@link PixelSink}
+      @param argb   the segment's color as {@code 0xAARRGGBB}
+      @param sink   {@link PixelSink} to hold rasterized pixels
+   */
+   public static void rasterize(final Model model,
+                                final LineSegment ls,
+                                final int argb,
+                                final PixelSink sink)
+   {
+      final Vertex v0 = model.vertexList.get(ls.vIndexList.get(0));
+      final Vertex v1 = model.vertexList.get(ls.vIndexList.get(1));
+
+      rasterize(v0.x, v0.y, v1.x, v1.y, argb, sink);
+   }
+
+
+   /**
+      Rasterize and clip a projected {@link LineSegment}, in the given
+      color, into pixels in a {@link PixelSink}, and log each of its
+      pixels that the {@link Trace} selects.
+
+      @param model  {@link Model} that the {@link LineSegment} {@code ls} comes from
+      @param ls     {@link LineSegment} to rasterize into the {@link PixelSink}
+      @param argb   the segment's color as {@code 0xAARRGGBB}
+      @param sink   {@link PixelSink} to hold rasterized pixels
+      @param trace  {@link Trace} that selects the pixels to log
+   */
+   static void trace(final Model model,
+                     final LineSegment ls,
+                     final int argb,
+                     final PixelSink sink,
+                     final Trace trace)
+   {
+      final Vertex v0 = model.vertexList.get(ls.vIndexList.get(0));
+      final Vertex v1 = model.vertexList.get(ls.vIndexList.get(1));
+
+      rasterize(v0.x, v0.y, v1.x, v1.y, argb,
+                0, 0, sink.getWidth(), sink.getHeight(), sink, trace);
+   }
+
+
+   /**
+      Rasterize and (possibly) clip the projected line segment from
+      {@code (x0, y0)} to {@code (x1, y1)} in the logical pixel-plane
+      into pixels in the {@link FrameBuffer.Viewport}.
+      <p>
+      This is the form used by {@link Rasterize#rasterize(CompiledMesh, double[], double[], FrameBuffer.Viewport)},
+      which has the projected coordinates in arrays instead of in {@link Vertex} objects.
+
+      @param x0  x-coordinate of the segment's first endpoint in the pixel-plane
+      @param y0  y-coordinate of the segment's first endpoint in the pixel-plane
+      @param x1  x-coordinate of the segment's second endpoint in the pixel-plane
+      @param y1  y-coordinate of the segment's second endpoint in the pixel-plane
+      @param vp  {@link FrameBuffer.Viewport} to hold rasterized pixels
+   */
+   public static void rasterize(final double x0, final double y0,
+                                final double x1, final double y1,
+                                final FrameBuffer.Viewport vp)
+   {
+      rasterize(x0, y0, x1, y1, Color.white.getRGB(), PixelSink.of(vp));
+   }
+
+
+   /**
+      Rasterize and clip the projected line segment from {@code (x0, y0)}
+      to {@code (x1, y1)} in the logical pixel-plane, in the given color,
+      into a {@link PixelSink}.
+
+      @param x0    x-coordinate of the segment's first endpoint in the pixel-plane
+      @param y0    y-coordinate of the segment's first endpoint in the pixel-plane
+      @param x1    x-coordinate of the segment's second endpoint in the pixel-plane
+      @param y1    y-coordinate of the segment's second endpoint in the pixel-plane
+      @param argb  the segment's color as {@code 0xAARRGGBB}
+      @param sink  {@link PixelSink} to hold rasterized pixels
+   */
+   public static void rasterize(final double x0, final double y0,
+                                final double x1, final double y1,
+                                final int argb,
+                                final PixelSink sink)
+   {
+      rasterize(x0, y0, x1, y1, argb, 0, 0, sink.getWidth(), sink.getHeight(), sink, null);
+   }
+
+
+   /**
+      Rasterize the projected line segment from {@code (x0, y0)} to
+      {@code (x1, y1)}, but clip it to the rectangle of viewport pixels
+      with {@code xMin <= x_vp < xMax} and {@code yMin <= y_vp < yMax}
+      instead of to the whole {@link FrameBuffer.Viewport}.
+      <p>
+      The pixels drawn are exactly the pixels of the whole segment that
+      lie in the rectangle, so rasterizing a segment into each rectangle
+      of a partition of the viewport draws the same pixels as rasterizing
+      it once. This is what lets {@link Rasterize_Tiles} rasterize every
+      tile of the viewport independently.
+
+      @param x0    x-coordinate of the segment's first endpoint in the pixel-plane
+      @param y0    y-coordinate of the segment's first endpoint in the pixel-plane
+      @param x1    x-coordinate of the segment's second endpoint in the pixel-plane
+      @param y1    y-coordinate of the segment's second endpoint in the pixel-plane
+      @param argb  the segment's color as {@code 0xAARRGGBB}
+      @param xMin  the rectangle's left edge, in viewport coordinates
+      @param yMin  the rectangle's top edge, in viewport coordinates
+      @param xMax  one past the rectangle's right edge, in viewport coordinates
+      @param yMax  one past the rectangle's bottom edge, in viewport coordinates
+      @param sink  {@link PixelSink} to hold rasterized pixels
+   */
+   static void rasterize(final double x0, final double y0,
+                         final double x1, final double y1,
+                         final int argb,
+                         final int xMin, final int yMin,
+                         final int xMax, final int yMax,
+                         final PixelSink sink)
+   {
+      rasterize(x0, y0, x1, y1, argb, xMin, yMin, xMax, yMax, sink, null);
+   }
+
+
+   // Endpoints farther than this from the origin are rasterized by
+   // rasterizeFar(), so that the products in clip() and in the stepping
+   // fit in a long.
+   static final long maxCoordinate = 1L << 29;
+
+
+   // The minor coordinate that step k of a segment draws, when the segment
+   // starts at minor coordinate n0 and moves minor pixels in major steps,
+   // with 0 < major and |minor| <= major <= 2 * maxCoordinate. This is the
+   // y (or x) that the loops below keep as a quotient and remainder, so
+   // Rasterize_Tiles can bin a segment by the pixels it actually draws.
+   static long minorAt(final long n0, final long major, final long minor, final long k)
+   {
+      return n0 + Math.floorDiv(2*k*minor + major, 2*major);
+   }
+
+   // The one rasterization loop, for every segment, traced or not.
+   //
+   // Step k along the major axis draws the pixel nearest to the exact line
+   // between the rounded endpoints, rounding halves up as Math.round does.
+   // The minor coordinate is kept exactly, as the quotient and remainder of
+   // an integer division, so the pixel that a step draws does not depend on
+   // where the loop starts. Without a trace, the loop starts at the first
+   // step inside the clip rectangle and stops at the last one, both found
+   // by clip() with one division each, so a segment costs only the pixels
+   // it draws, however far off-screen it starts. A traced segment (and
+   // every segment when clipping is off) visits every step from its first
+   // endpoint, so that the pixels outside the rectangle can be logged as
+   // clipped.
+   //
+   // The original loop stepped the minor coordinate with a double
+   // accumulator. The accumulator's error after k steps is less than
+   // (k + 2) * 2^-53 * (the largest |minor| coordinate), while the exact
+   // line is at least 1/(2*major) away from a halfway point unless it is
+   // exactly on one. So while major * (major + 2) * (the largest |minor|
+   // coordinate) < 2^52, for example while both endpoints are within
+   // 100,000 pixels of the origin, the accumulator rounds to the same
+   // pixel as the exact line except where the exact line is exactly
+   // halfway between two pixels. There, this loop always takes the upper
+   // pixel, and the accumulator took whichever side it had drifted to.
+   // TestRasterizeClipLine checks both of these claims.
+   private static void rasterize(final double x0, final double y0,
+                                 final double x1, final double y1,
+                                 final int argb,
+                                 final int xMin, final int yMin,
+                                 final int xMax, final int yMax,
+                                 final PixelSink sink,
+                                 final Trace trace)
    {
       final String     CLIPPED = "Clipped: ";
       final String NOT_CLIPPED = "         ";
 
-      final Color c = Color.white;
+      // Pixels can only be logged with the viewport they are going into.
+      final FrameBuffer.Viewport vp = sink.getViewport();
+      final boolean tracing = trace != null && vp != null;
 
-      // Make local copies of several values.
-      final int w = vp.getWidthVP();
-      final int h = vp.getHeightVP();
+      // Only skip the steps outside of the rectangle when there is a
+      // rectangle, and none of the steps need to be logged.
+      final boolean clipping = Rasterize.doClipping;
+      final boolean skipping = clipping && ! tracing;
 
-      final int vIndex0 = ls.vIndexList.get(0);
-      final int vIndex1 = ls.vIndexList.get(1);
-      final Vertex v0 = model.vertexList.get(vIndex0);
-      final Vertex v1 = model.vertexList.get(vIndex1);
+      // Make local copies of several values.
+      final int h = sink.getHeight();
 
       // Round each point's coordinates to the nearest logical pixel.
-      double x0 = Math.round(v0.x);
-      double y0 = Math.round(v0.y);
-      double x1 = Math.round(v1.x);
-      double y1 = Math.round(v1.y);
+      final long rx0 = Math.round(x0);
+      final long ry0 = Math.round(y0);
+      final long rx1 = Math.round(x1);
+      final long ry1 = Math.round(y1);
+
+      // (Math.round saturates to Long.MIN_VALUE, whose Math.abs is
+      // negative, so each coordinate is compared with both bounds.)
+      if ( rx0 < -maxCoordinate || rx0 > maxCoordinate
+        || ry0 < -maxCoordinate || ry0 > maxCoordinate
+        || rx1 < -maxCoordinate || rx1 > maxCoordinate
+        || ry1 < -maxCoordinate || ry1 > maxCoordinate )
+      {
+         rasterizeFar(rx0, ry0, rx1, ry1, argb, xMin, yMin, xMax, yMax, sink, tracing ? trace : null);
+         return;
+      }
 
       // Rasterize a degenerate line segment (a line segment
       // that projected onto a single point) as a single pixel.
-      if ( (x0 == x1) && (y0 == y1) )
+      if ( (rx0 == rx1) && (ry0 == ry1) )
       {
          // We don't know which endpoint of the line segment
          // is in front, so just pick v0.
-         final int x0_vp = (int)x0 - 1;  // viewport coordinate
-         final int y0_vp = h - (int)y0;  // viewport coordinate
+         final int x0_vp = (int)rx0 - 1;  // viewport coordinate
+         final int y0_vp = h - (int)ry0;  // viewport coordinate
 
-         if ( ! Rasterize.doClipping
-           || (x0_vp >= 0 && x0_vp < w && y0_vp >= 0 && y0_vp < h) ) // clipping test
+         if ( ! clipping
+           || (x0_vp >= xMin && x0_vp < xMax && y0_vp >= yMin && y0_vp < yMax) ) // clipping test
          {
-            if (Rasterize.debug)
+            if (tracing && trace.tracesPixel(x0_vp, y0_vp))
             {
-               logPixel(NOT_CLIPPED, x0, y0, x0_vp, y0_vp, vp);
+               logPixel(NOT_CLIPPED, (double)rx0, (double)ry0, x0_vp, y0_vp, vp);
             }
             // Log the pixel before setting it so that an array out-
             // of-bounds error will be right after the pixel's address.
 
-            vp.setPixelVP(x0_vp, y0_vp, c);
+            sink.setPixel(x0_vp, y0_vp, argb);
          }
-         else if (Rasterize.doClipping && Rasterize.debug)
+         else if (tracing && trace.tracesPixel(x0_vp, y0_vp))
          {
-            logPixel(CLIPPED, x0, y0, x0_vp, y0_vp, vp);
+            logPixel(CLIPPED, (double)rx0, (double)ry0, x0_vp, y0_vp, vp);
          }
          return;
       }
@@ -167,110 +361,312 @@ public final class Rasterize_Clip_Line
       // If abs(slope) <= 1, then rasterize this line in
       // the direction of the x-axis. Otherwise, rasterize
       // this line segment in the direction of the y-axis.
-      if (Math.abs(y1 - y0) <= Math.abs(x1 - x0)) // if abs(slope) <= 1
+      if (Math.abs(ry1 - ry0) <= Math.abs(rx1 - rx0)) // if abs(slope) <= 1
       {
-         if (x1 < x0) // We want to rasterize along the x-axis from left-to-right,
-         {            // so, if necessary, swap (x0, y0) with (x1, y1).
-            final double tempX = x0;
-            final double tempY = y0;
-            x0 = x1;
-            y0 = y1;
-            x1 = tempX;
-            y1 = tempY;
-         }
+         // We want to rasterize along the x-axis from left-to-right,
+         // so, if necessary, swap (x0, y0) with (x1, y1).
+         final boolean swap = rx1 < rx0;
+         final long X0 = swap ? rx1 : rx0,  Y0 = swap ? ry1 : ry0;
+         final long X1 = swap ? rx0 : rx1,  Y1 = swap ? ry0 : ry1;
+         final long dx = X1 - X0;
+         final long dy = Y1 - Y0;
 
          // Compute this line segment's slope.
-         final double m = (y1 - y0) / (x1 - x0);
+         final double m = (double)dy / dx;
 
-         if (Rasterize.debug)
+         if (tracing)
          {
             logMessage("Slope m = " + m);
-            logMessage(String.format("(x0_vp, y0_vp) = (%9.4f, %9.4f)", x0-1,h-y0));
-            logMessage(String.format("(x1_vp, y1_vp) = (%9.4f, %9.4f)", x1-1,h-y1));
+            logMessage(String.format("(x0_vp, y0_vp) = (%9.4f, %9.4f)", (double)(X0-1), (double)(h-Y0)));
+            logMessage(String.format("(x1_vp, y1_vp) = (%9.4f, %9.4f)", (double)(X1-1), (double)(h-Y1)));
+         }
+
+         // Step k draws x = X0 + k and y = Y0 + round(k*dy/dx).
+         long kFirst = 0;
+         long kLast  = dx;
+         if (skipping)
+         {
+            // x_vp = X0 + k - 1 must be in [xMin, xMax), and y_vp = h - y must be in [yMin, yMax).
+            final long[] k = clip(dx, dy, h - yMax + 1 - Y0, h - yMin - Y0);
+            kFirst = Math.max(Math.max(kFirst, xMin + 1 - X0), k[0]);
+            kLast  = Math.min(Math.min(kLast,  xMax - X0),     k[1]);
+            if (kFirst > kLast)
+            {
+               return;
+            }
          }
 
-         // Rasterize this line segment, along the x-axis, from left-to-right.
-         // In the following loop, as x moves across the logical
-         // horizontal pixels, we compute a y value for each x.
-         double y = y0;
-         for (int x = (int)x0; x <= (int)x1; x += 1, y += m)
+         // Step from kFirst to kLast keeping y = Y0 + round(k*dy/dx) exactly,
+         // as the quotient and remainder of (2*k*dy + dx) / (2*dx).
+         final long numerator = 2*kFirst*dy + dx;
+         long y = Y0 + Math.floorDiv(numerator, 2*dx);
+         long r = Math.floorMod(numerator, 2*dx);
+
+         if (skipping) // every step from kFirst to kLast is inside the rectangle
          {
-            // The value of y will almost always be between
-            // two vertical pixel coordinates. By rounding off
-            // the value of y, we are choosing the nearest logical
-            // vertical pixel coordinate.
-            final int x_vp = x - 1;                  // viewport coordinate
-            final int y_vp = h - (int)Math.round(y); // viewport coordinate
-
-            if ( ! Rasterize.doClipping
-              || (x_vp >= 0 && x_vp < w && y_vp >= 0 && y_vp < h) ) // clipping test
+            for (long x = X0 + kFirst; x <= X0 + kLast; ++x)
+            {
+               sink.setPixel((int)(x - 1), (int)(h - y), argb);
+
+               r += 2*dy;
+               if (r >= 2*dx)  { r -= 2*dx; y += 1; }
+               else if (r < 0) { r += 2*dx; y -= 1; }
+            }
+            return;
+         }
+
+         // Rasterize this line segment, along the x-axis, from left-to-right,
+         // testing each pixel against the rectangle.
+         for (long x = X0; x <= X1; ++x)
+         {
+            final int x_vp = (int)(x - 1); // viewport coordinate
+            final int y_vp = (int)(h - y); // viewport coordinate
+
+            if ( ! clipping
+              || (x_vp >= xMin && x_vp < xMax && y_vp >= yMin && y_vp < yMax) ) // clipping test
             {
-               if (Rasterize.debug)
+               if (tracing && trace.tracesPixel(x_vp, y_vp))
                {
-                  logPixel(NOT_CLIPPED, x, y, x_vp, y_vp, vp);
+                  logPixel(NOT_CLIPPED, (int)x, Y0 + (x - X0) * m, x_vp, y_vp, vp);
                }
                // Log the pixel before setting it so that an array out-
                // of-bounds error will be right after the pixel's address.
 
-               vp.setPixelVP(x_vp, y_vp, c);
+               sink.setPixel(x_vp, y_vp, argb);
             }
-            else if (Rasterize.doClipping && Rasterize.debug)
+            else if (tracing && trace.tracesPixel(x_vp, y_vp))
             {
-               logPixel(CLIPPED, x, y, x_vp, y_vp, vp);
+               logPixel(CLIPPED, (int)x, Y0 + (x - X0) * m, x_vp, y_vp, vp);
             }
-         }// Advance (x,y) to the next pixel. Since delta_x = 1, we need delta_y = m.
+
+            r += 2*dy;
+            if (r >= 2*dx)  { r -= 2*dx; y += 1; }
+            else if (r < 0) { r += 2*dx; y -= 1; }
+         }
       }
       else // abs(slope) > 1, so rasterize along the y-axis.
       {
-         if (y1 < y0) // We want to rasterize along the y-axis from bottom-to-top,
-         {            // so, if necessary, swap (x0, y0) with (x1, y1).
-            final double tempX = x0;
-            final double tempY = y0;
-            x0 = x1;
-            y0 = y1;
-            x1 = tempX;
-            y1 = tempY;
-         }
+         // We want to rasterize along the y-axis from bottom-to-top,
+         // so, if necessary, swap (x0, y0) with (x1, y1).
+         final boolean swap = ry1 < ry0;
+         final long X0 = swap ? rx1 : rx0,  Y0 = swap ? ry1 : ry0;
+         final long X1 = swap ? rx0 : rx1,  Y1 = swap ? ry0 : ry1;
+         final long dy = Y1 - Y0;
+         final long dx = X1 - X0;
 
          // Compute this line segment's slope.
-         final double m = (x1 - x0) / (y1 - y0);
+         final double m = (double)dx / dy;
 
-         if (Rasterize.debug)
+         if (tracing)
          {
             logMessage("Slope m = " + m + " (so 1/m = " + 1/m + ")");
-            logMessage(String.format("(x0_vp, y0_vp) = (%9.4f, %9.4f)", x0-1,h-y0));
-            logMessage(String.format("(x1_vp, y1_vp) = (%9.4f, %9.4f)", x1-1,h-y1));
+            logMessage(String.format("(x0_vp, y0_vp) = (%9.4f, %9.4f)", (double)(X0-1), (double)(h-Y0)));
+            logMessage(String.format("(x1_vp, y1_vp) = (%9.4f, %9.4f)", (double)(X1-1), (double)(h-Y1)));
+         }
+
+         // Step k draws y = Y0 + k and x = X0 + round(k*dx/dy).
+         long kFirst = 0;
+         long kLast  = dy;
+         if (skipping)
+         {
+            // y_vp = h - Y0 - k must be in [yMin, yMax), and x_vp = x - 1 must be in [xMin, xMax).
+            final long[] k = clip(dy, dx, xMin + 1 - X0, xMax - X0);
+            kFirst = Math.max(Math.max(kFirst, h - Y0 - yMax + 1), k[0]);
+            kLast  = Math.min(Math.min(kLast,  h - Y0 - yMin),     k[1]);
+            if (kFirst > kLast)
+            {
+               return;
+            }
+         }
+
+         // Step from kFirst to kLast keeping x = X0 + round(k*dx/dy) exactly,
+         // as the quotient and remainder of (2*k*dx + dy) / (2*dy).
+         final long numerator = 2*kFirst*dx + dy;
+         long x = X0 + Math.floorDiv(numerator, 2*dy);
+         long r = Math.floorMod(numerator, 2*dy);
+
+         if (skipping) // every step from kFirst to kLast is inside the rectangle
+         {
+            for (long y = Y0 + kFirst; y <= Y0 + kLast; ++y)
+            {
+               sink.setPixel((int)(x - 1), (int)(h - y), argb);
+
+               r += 2*dx;
+               if (r >= 2*dy)  { r -= 2*dy; x += 1; }
+               else if (r < 0) { r += 2*dy; x -= 1; }
+            }
+            return;
          }
 
-         // Rasterize this line segment, along the y-axis, from bottom-to-top.
-         // In the following loop, as y moves across the logical
-         // vertical pixels, we compute a x value for each y.
-         double x = x0;
-         for (int y = (int)y0; y <= (int)y1; x += m, y += 1)
+         // Rasterize this line segment, along the y-axis, from bottom-to-top,
+         // testing each pixel against the rectangle.
+         for (long y = Y0; y <= Y1; ++y)
          {
-            // The value of x will almost always be between
-            // two horizontal pixel coordinates. By rounding off
-            // the value of x, we are choosing the nearest logical
-            // horizontal pixel coordinate.
-            final int x_vp = (int)Math.round(x) - 1; // viewport coordinate
-            final int y_vp = h - y;                  // viewport coordinate
-
-            if ( ! Rasterize.doClipping
-              || (x_vp >= 0 && x_vp < w && y_vp >= 0 && y_vp < h) ) // clipping test
+            final int x_vp = (int)(x - 1); // viewport coordinate
+            final int y_vp = (int)(h - y); // viewport coordinate
+
+            if ( ! clipping
+              || (x_vp >= xMin && x_vp < xMax && y_vp >= yMin && y_vp < yMax) ) // clipping test
             {
-               if (Rasterize.debug)
+               if (tracing && trace.tracesPixel(x_vp, y_vp))
                {
-                  logPixel(NOT_CLIPPED, x, y, x_vp, y_vp, vp);
+                  logPixel(NOT_CLIPPED, X0 + (y - Y0) * m, (int)y, x_vp, y_vp, vp);
                }
 
-               vp.setPixelVP(x_vp, y_vp, c);
+               sink.setPixel(x_vp, y_vp, argb);
             }
-            else if (Rasterize.doClipping && Rasterize.debug)
+            else if (tracing && trace.tracesPixel(x_vp, y_vp))
             {
-               logPixel(CLIPPED, x, y, x_vp, y_vp, vp);
+               logPixel(CLIPPED, X0 + (y - Y0) * m, (int)y, x_vp, y_vp, vp);
             }
-         }// Advance (x,y) to the next pixel. Since delta_y = 1, we need delta_x = m.
+
+            r += 2*dx;
+            if (r >= 2*dy)  { r -= 2*dy; x += 1; }
+            else if (r < 0) { r += 2*dy; x -= 1; }
+         }
+      }
+   }
+
+
+   /**
+      Find the steps {@code k} of a line, with {@code 0 <= k <= major}, whose
+      minor coordinate offset {@code round(k*minor/major)} (rounding halves
+      up, as {@link Math#round} does) lies in {@code [lo, hi]}.
+      <p>
+      Since {@code floor((2*k*minor + major) / (2*major))} is at least
+      {@code lo} exactly when {@code 2*k*minor + major >= 2*major*lo}, and is
+      at most {@code hi} exactly when {@code 2*k*minor + major < 2*major*(hi+1)},
+      both bounds are found with one integer division each.
+
+      @param major  the number of steps along the major axis, positive
+      @param minor  the change along the minor axis, {@code |minor| <= major}
+      @param lo     the smallest minor offset that is inside the clip rectangle
+      @param hi     the largest minor offset that is inside the clip rectangle
+      @return the first and last step inside the clip rectangle (empty if first > last)
+   */
+   private static long[] clip(final long major, final long minor,
+                              final long lo, final long hi)
+   {
+      final long low  = 2*major*lo - major;           // 2*k*minor >= low
+      final long high = 2*major*(hi + 1) - major - 1; // 2*k*minor <= high
+      if (minor > 0)
+      {
+         return new long[]{ ceilDiv(low, 2*minor), Math.floorDiv(high, 2*minor) };
       }
+      else if (minor < 0)
+      {
+         return new long[]{ ceilDiv(high, 2*minor), Math.floorDiv(low, 2*minor) };
+      }
+      else
+      {
+         return (low <= 0 && 0 <= high) ? new long[]{ 0, major } : new long[]{ 1, 0 };
+      }
+   }
+
+   private static long ceilDiv(final long a, final long b)
+   {
+      return -Math.floorDiv(-a, b);
+   }
+
+
+   // Rasterize a segment with an endpoint more than maxCoordinate pixels
+   // from the origin. This is the same entry and stepping as rasterize(),
+   // done with BigInteger arithmetic, so it draws the same pixels that
+   // the long arithmetic would draw if it did not overflow, and it only
+   // visits the steps inside the rectangle. Such a segment is always
+   // clipped, since its pixels outside of the rectangle cannot be set, or
+   // logged, in any reasonable time.
+   private static void rasterizeFar(final long rx0, final long ry0,
+                                    final long rx1, final long ry1,
+                                    final int argb,
+                                    final int xMin, final int yMin,
+                                    final int xMax, final int yMax,
+                                    final PixelSink sink,
+                                    final Trace trace)
+   {
+      final int h = sink.getHeight();
+
+      // Rasterize along the major axis, in the direction that it increases,
+      // from (M0, N0) in (major, minor) coordinates.
+      final boolean alongX = BigInteger.valueOf(ry1).subtract(BigInteger.valueOf(ry0)).abs()
+                 .compareTo(BigInteger.valueOf(rx1).subtract(BigInteger.valueOf(rx0)).abs()) <= 0;
+      final long m0 = alongX ? rx0 : ry0,  n0 = alongX ? ry0 : rx0;
+      final long m1 = alongX ? rx1 : ry1,  n1 = alongX ? ry1 : rx1;
+      final boolean swap = m1 < m0;
+      final BigInteger M0 = BigInteger.valueOf(swap ? m1 : m0);
+      final BigInteger N0 = BigInteger.valueOf(swap ? n1 : n0);
+      final BigInteger major = BigInteger.valueOf(swap ? m0 : m1).subtract(M0);
+      final BigInteger minor = BigInteger.valueOf(swap ? n0 : n1).subtract(N0);
+
+      // The major and minor coordinates inside the rectangle, x in
+      // [xMin + 1, xMax] and y in [h - yMax + 1, h - yMin].
+      final long majorLo = alongX ? xMin + 1 : (long)h - yMax + 1;
+      final long majorHi = alongX ? xMax     : (long)h - yMin;
+      final long minorLo = alongX ? (long)h - yMax + 1 : xMin + 1;
+      final long minorHi = alongX ? (long)h - yMin     : xMax;
+
+      // The steps inside the rectangle, as in rasterize() and clip().
+      BigInteger kFirst = BigInteger.valueOf(majorLo).subtract(M0).max(BigInteger.ZERO);
+      BigInteger kLast  = BigInteger.valueOf(majorHi).subtract(M0).min(major);
+      final BigInteger twoMajor = major.shiftLeft(1);
+      final BigInteger twoMinor = minor.shiftLeft(1);
+      final BigInteger low  = twoMajor.multiply(BigInteger.valueOf(minorLo).subtract(N0)).subtract(major);
+      final BigInteger high = twoMajor.multiply(BigInteger.valueOf(minorHi + 1).subtract(N0))
+                                      .subtract(major).subtract(BigInteger.ONE);
+      if (minor.signum() > 0)
+      {
+         kFirst = kFirst.max(floorDiv(low.negate(), twoMinor).negate());
+         kLast  = kLast.min(floorDiv(high, twoMinor));
+      }
+      else if (minor.signum() < 0)
+      {
+         kFirst = kFirst.max(floorDiv(high.negate(), twoMinor).negate());
+         kLast  = kLast.min(floorDiv(low, twoMinor));
+      }
+      else if (low.signum() > 0 || high.signum() < 0)
+      {
+         return;
+      }
+      if (kFirst.compareTo(kLast) > 0)
+      {
+         return;
+      }
+
+      // The minor coordinate is N0 + round(k*minor/major), kept as the
+      // quotient and remainder of (2*k*minor + major) / (2*major). Inside
+      // the rectangle it, and the major coordinate, fit in a long.
+      long n = n0;
+      BigInteger r = BigInteger.ZERO;
+      if (major.signum() > 0) // not a degenerate segment
+      {
+         final BigInteger numerator = kFirst.multiply(twoMinor).add(major);
+         final BigInteger q = floorDiv(numerator, twoMajor);
+         n = N0.add(q).longValue();
+         r = numerator.subtract(q.multiply(twoMajor));
+      }
+      final long cFirst = M0.add(kFirst).longValue();
+      final long cLast  = M0.add(kLast).longValue();
+      for (long c = cFirst; c <= cLast; ++c)
+      {
+         final int x_vp = (int)((alongX ? c : n) - 1);
+         final int y_vp = (int)(h - (alongX ? n : c));
+         if (trace != null && trace.tracesPixel(x_vp, y_vp))
+         {
+            logPixel("         ", (double)(x_vp + 1), (double)(h - y_vp), x_vp, y_vp, sink.getViewport());
+         }
+         sink.setPixel(x_vp, y_vp, argb);
+
+         r = r.add(twoMinor);
+         if (r.compareTo(twoMajor) >= 0)  { r = r.subtract(twoMajor); n += 1; }
+         else if (r.signum() < 0)         { r = r.add(twoMajor);      n -= 1; }
+      }
+   }
+
+   private static BigInteger floorDiv(final BigInteger a, final BigInteger b)
+   {
+      final BigInteger[] qr = a.divideAndRemainder(b);
+      return (qr[1].signum() != 0 && qr[1].signum() != b.signum())
+             ? qr[0].subtract(BigInteger.ONE) : qr[0];
    }
 
 
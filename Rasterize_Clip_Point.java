@@ -9,7 +9,7 @@ package renderer.pipelineGL;
 import renderer.scene.*;
 import renderer.scene.primitives.Point;
 import renderer.framebuffer.*;
-import static renderer.pipeline.PipelineLogger.*;
+import static renderer.pipelineGL.PipelineLoggerGL.*;
 
 import java.awt.Color;
 
@@ -32,51 +32,198 @@ public class Rasterize_Clip_Point
    public static void rasterize(final Model model,
                                 final Point pt,
                                 final FrameBuffer.Viewport vp)
+   {
+      final int vIndex = pt.vIndexList.get(0);
+      final Vertex v = model.vertexList.get(vIndex);
+
+      rasterize(v.x, v.y, pt.radius, vp);
+   }
+
+
+   /**
+      Rasterize and clip a {@link Point}, in the given color,
+      into pixels in a {@link PixelSink}.
+
+      @param model  {@link Model} that the {@link Point} {@code pt} comes from
+      @param pt     {@code Point} to rasterize into the {@code PixelSink}
+      @param argb   the point's color as {@code 0xAARRGGBB}
+      @param sink   {@link PixelSink} to hold rasterized pixels
+   */
+   public static void rasterize(final Model model,
+                                final Point pt,
+                                final int argb,
+                                final PixelSink sink)
+   {
+      final Vertex v = model.vertexList.get(pt.vIndexList.get(0));
+
+      rasterize(v.x, v.y, pt.radius, argb, sink);
+   }
+
+
+   /**
+      Rasterize and clip a {@link Point}, in the given color, into
+      pixels in a {@link PixelSink}, and log each of its pixels that
+      the {@link Trace} selects.
+
+      @param model  {@link Model} that the {@link Point} {@code pt} comes from
+      @param pt     {@code Point} to rasterize into the {@code PixelSink}
+      @param argb   the point's color as {@code 0xAARRGGBB}
+      @param sink   {@link PixelSink} to hold rasterized pixels
+      @param trace  {@link Trace} that selects the pixels to log
+   */
+   static void trace(final Model model,
+                     final Point pt,
+                     final int argb,
+                     final PixelSink sink,
+                     final Trace trace)
+   {
+      final Vertex v = model.vertexList.get(pt.vIndexList.get(0));
+
+      rasterize(v.x, v.y, pt.radius, argb,
+                0, 0, sink.getWidth(), sink.getHeight(), sink, trace);
+   }
+
+
+   /**
+      Rasterize a projected point at {@code (vx, vy)} in the logical
+      pixel-plane, with the given radius, into pixels in a
+      {@link FrameBuffer.Viewport}.
+
+      @param vx      x-coordinate of the point in the pixel-plane
+      @param vy      y-coordinate of the point in the pixel-plane
+      @param radius  the point's radius, in pixels
+      @param vp      {@link FrameBuffer.Viewport} to hold rasterized pixels
+   */
+   public static void rasterize(final double vx,
+                                final double vy,
+                                final int radius,
+                                final FrameBuffer.Viewport vp)
+   {
+      rasterize(vx, vy, radius, Color.white.getRGB(), PixelSink.of(vp));
+   }
+
+
+   /**
+      Rasterize and clip a projected point at {@code (vx, vy)} in the
+      logical pixel-plane, with the given radius and color, into a
+      {@link PixelSink}.
+
+      @param vx      x-coordinate of the point in the pixel-plane
+      @param vy      y-coordinate of the point in the pixel-plane
+      @param radius  the point's radius, in pixels
+      @param argb    the point's color as {@code 0xAARRGGBB}
+      @param sink    {@link PixelSink} to hold rasterized pixels
+   */
+   public static void rasterize(final double vx,
+                                final double vy,
+                                final int radius,
+                                final int argb,
+                                final PixelSink sink)
+   {
+      rasterize(vx, vy, radius, argb, 0, 0, sink.getWidth(), sink.getHeight(), sink);
+   }
+
+
+   /**
+      Rasterize a projected point, but clip it to the rectangle of
+      viewport pixels with {@code xMin <= x_vp < xMax} and
+      {@code yMin <= y_vp < yMax} instead of to the whole
+      {@link FrameBuffer.Viewport} (see {@link Rasterize_Tiles}).
+
+      @param vx      x-coordinate of the point in the pixel-plane
+      @param vy      y-coordinate of the point in the pixel-plane
+      @param radius  the point's radius, in pixels
+      @param argb    the point's color as {@code 0xAARRGGBB}
+      @param xMin    the rectangle's left edge, in viewport coordinates
+      @param yMin    the rectangle's top edge, in viewport coordinates
+      @param xMax    one past the rectangle's right edge, in viewport coordinates
+      @param yMax    one past the rectangle's bottom edge, in viewport coordinates
+      @param sink    {@link PixelSink} to hold rasterized pixels
+   */
+   static void rasterize(final double vx,
+                         final double vy,
+                         final int radius,
+                         final int argb,
+                         final int xMin, final int yMin,
+                         final int xMax, final int yMax,
+                         final PixelSink sink)
+   {
+      rasterize(vx, vy, radius, argb, xMin, yMin, xMax, yMax, sink, null);
+   }
+
+
+   // The one rasterization loop, for every point, traced or not. Each
+   // row of the point's square that is inside the clip rectangle is
+   // filled as one span. A traced point visits every row of its square,
+   // and logs every pixel of the row, so that the pixels outside of the
+   // rectangle can be logged as clipped.
+   private static void rasterize(final double vx,
+                                 final double vy,
+                                 final int radius,
+                                 final int argb,
+                                 final int xMin, final int yMin,
+                                 final int xMax, final int yMax,
+                                 final PixelSink sink,
+                                 final Trace trace)
    {
       final String     CLIPPED = "Clipped: ";
       final String NOT_CLIPPED = "         ";
 
-      final Color c = Color.white;
+      // Pixels can only be logged with the viewport they are going into.
+      final FrameBuffer.Viewport vp = sink.getViewport();
+      final boolean tracing = trace != null && vp != null;
 
-      final int w = vp.getWidthVP();
-      final int h = vp.getHeightVP();
+      final boolean clipping = Rasterize.doClipping;
 
-      final int vIndex = pt.vIndexList.get(0);
-      final Vertex v = model.vertexList.get(vIndex);
+      final int h = sink.getHeight();
 
       // Round the point's coordinates to the nearest logical pixel.
-      final double x = Math.round( v.x );
-      final double y = Math.round( v.y );
+      final long x = Math.round( vx );
+      final long y = Math.round( vy );
 
-      final int radius = pt.radius;
+      // The point's square, in viewport coordinates.
+      final long x0_vp = x - radius - 1, x1_vp = x + radius - 1;
+      final long y0_vp = h - y - radius, y1_vp = h - y + radius;
+
+      // Clamp the square to the clip rectangle once.
+      final long left   = clipping ? Math.max(x0_vp, xMin)     : x0_vp;
+      final long right  = clipping ? Math.min(x1_vp, xMax - 1) : x1_vp;
+      final long top    = clipping ? Math.max(y0_vp, yMin)     : y0_vp;
+      final long bottom = clipping ? Math.min(y1_vp, yMax - 1) : y1_vp;
+      final boolean empty = left > right || top > bottom; // entirely clipped
+
+      if (empty && ! tracing)
+      {
+         return;
+      }
 
-      for (int y_ = (int)y - radius; y_ <= (int)y + radius; ++y_)
+      // Fill each row of the square as one span. Without a trace, only
+      // the rows inside the rectangle are visited, from top to bottom.
+      // A traced point is visited from bottom to top, in the order of
+      // increasing logical y that the logged pixels have always had.
+      final long first = tracing ? y1_vp : top;
+      final long last  = tracing ? y0_vp : bottom;
+      final long step  = tracing ? -1 : 1;
+      for (long y_vp = first; y_vp != last + step; y_vp += step)
       {
-         for (int x_ = (int)x - radius; x_ <= (int)x + radius; ++x_)
+         final boolean drawn = ! empty && top <= y_vp && y_vp <= bottom;
+         if (tracing)
          {
-            if (Rasterize.debug)
+            for (long x_vp = x0_vp; x_vp <= x1_vp; ++x_vp)
             {
-               final String clippedMessage;
-               if ( ! Rasterize.doClipping
-                 || (x_ > 0 && x_ <= w && y_ > 0 && y_ <= h) ) // clipping test
+               if (trace.tracesPixel((int)x_vp, (int)y_vp))
                {
-                  clippedMessage = NOT_CLIPPED;
+                  final boolean inside = drawn && left <= x_vp && x_vp <= right;
+                  logPixel(inside ? NOT_CLIPPED : CLIPPED, x, y, (int)x_vp, (int)y_vp, vp);
                }
-               else
-               {
-                  clippedMessage = CLIPPED;
-               }
-               logPixel(clippedMessage, x, y, x_ - 1, h - y_, vp);
-            }
-            // Log the pixel before setting it so that an array out-
-            // of-bounds error will be right after the pixel's address.
-
-            if ( ! Rasterize.doClipping
-              || (x_ > 0 && x_ <= w && y_ > 0 && y_ <= h) ) // clipping test
-            {
-               vp.setPixelVP(x_ - 1, h - y_, Color.white);
             }
          }
+         // Log the row's pixels before setting them so that an array out-
+         // of-bounds error will be right after the pixels' addresses.
+         if (drawn)
+         {
+            sink.fillRow((int)y_vp, (int)left, (int)right + 1, argb);
+         }
       }
    }
 
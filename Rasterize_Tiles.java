@@ -0,0 +1,564 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import renderer.scene.*;
+import renderer.scene.primitives.*;
+import renderer.framebuffer.*;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+   Rasterize many projected {@link Model}s at once, on all of the
+   CPU's cores.
+<p>
+   The {@link FrameBuffer.Viewport} is cut into square tiles of
+   {@link #tileSize} pixels. First, every {@link LineSegment} and
+   {@link Point} is put into the bin of each tile that it might draw a
+   pixel in. Then the tiles are rasterized in parallel, on a
+   {@link ForkJoinPool}, each one by {@link Rasterize_Clip_Line} and
+   {@link Rasterize_Clip_Point} clipped to the tile's rectangle. A tile
+   owns all of its pixels, so no two threads ever write the same pixel
+   and no locking is needed.
+<p>
+   A tile's bin holds its primitives in the order they appear in the
+   models, and clipping a primitive to a tile draws exactly the pixels
+   of the whole primitive that are in the tile. So the result is pixel
+   for pixel the same as {@link Rasterize#rasterize(Model, FrameBuffer.Viewport)}
+   called on each model in turn.
+<p>
+   Each render gathers its primitives, and bins them, in arrays of its
+   own, which the calling thread reuses for its next render. So different
+   threads may rasterize into different {@link PixelSink}s at the same time.
+<p>
+   When {@link Rasterize#doClipping} is off, primitives may write
+   outside of the viewport, so the models are rasterized one at a
+   time, on the calling thread.
+*/
+public final class Rasterize_Tiles
+{
+   /** The width and height of a tile, in pixels. */
+   public static int tileSize = 64;
+
+   /** The pool that the tiles are rasterized on. */
+   public static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+   private static final int LINE  = 0;
+   private static final int POINT = 1;
+
+   // Each thread keeps its own Frame, so that its arrays are reused from
+   // render to render and different threads never share one. A thread that
+   // starts a second render before its first one is done (a pool worker
+   // can run another task while it waits for its tiles) gets a new Frame.
+   private static final ThreadLocal<Frame> frames = ThreadLocal.withInitial(Frame::new);
+
+   /**
+      Rasterize every primitive of every {@link Model} into pixels
+      in a {@link FrameBuffer.Viewport}.
+
+      @param models  {@link Model}s whose vertices are in the logical pixel-plane
+      @param vp      {@link FrameBuffer.Viewport} to hold rasterized pixels
+   */
+   public static void rasterize(final List<Model> models,
+                                final FrameBuffer.Viewport vp)
+   {
+      rasterize(models, PixelSink.of(vp));
+   }
+
+   /**
+      Rasterize every primitive of every {@link Model} into pixels
+      in a {@link PixelSink}.
+
+      @param models  {@link Model}s whose vertices are in the logical pixel-plane
+      @param sink    {@link PixelSink} to hold rasterized pixels
+   */
+   public static void rasterize(final List<Model> models,
+                                final PixelSink sink)
+   {
+      if ( ! Rasterize.doClipping )
+      {
+         for (final Model model : models)
+         {
+            Rasterize.rasterize(model, sink);
+         }
+         return;
+      }
+
+      final Frame frame = acquire();
+      try
+      {
+         frame.gather(models);
+         frame.draw(sink);
+      }
+      finally
+      {
+         frame.inUse = false;
+      }
+   }
+
+   /**
+      Rasterize every primitive of several {@link CompiledMesh}es,
+      in the given color, into pixels in a {@link PixelSink}.
+      <p>
+      The projected vertices of all of the meshes are packed into
+      {@code x} and {@code y}, with vertex 0 of {@code meshes[i]} at
+      index {@code offsets[i]} (see {@link Model2PixelPlane}). The
+      result is the same as {@link Rasterize#rasterize(CompiledMesh, double[], double[], int, PixelSink)}
+      called on each mesh in turn.
+
+      @param meshes   {@link CompiledMesh}es whose primitives are rasterized
+      @param offsets  the index in {@code x} and {@code y} of each mesh's vertex 0
+      @param count    the number of meshes
+      @param x        the projected x-coordinates of the meshes' vertices
+      @param y        the projected y-coordinates of the meshes' vertices
+      @param argb     the primitives' color as {@code 0xAARRGGBB}
+      @param sink     {@link PixelSink} to hold rasterized pixels
+   */
+   static void rasterize(final CompiledMesh[] meshes,
+                         final int[] offsets,
+                         final int count,
+                         final double[] x,
+                         final double[] y,
+                         final int argb,
+                         final PixelSink sink)
+   {
+      if ( ! Rasterize.doClipping )
+      {
+         for (int i = 0; i < count; ++i)
+         {
+            Rasterize.rasterize(meshes[i], x, y, offsets[i], argb, sink);
+         }
+         return;
+      }
+
+      final Frame frame = acquire();
+      try
+      {
+         frame.gather(meshes, offsets, count, x, y, argb);
+         frame.draw(sink);
+      }
+      finally
+      {
+         frame.inUse = false;
+      }
+   }
+
+   private static Frame acquire()
+   {
+      Frame frame = frames.get();
+      if (frame.inUse)
+      {
+         frame = new Frame();
+      }
+      frame.inUse = true;
+      return frame;
+   }
+
+
+   // The primitives and bins of one render.
+   private static final class Frame
+   {
+      // Every primitive of the frame, in order. A line segment is
+      // (x0, y0, x1, y1) and a point is (x, y, radius, unused).
+      private int[]    kinds  = new int[0];
+      private int[]    colors = new int[0];
+      private double[] coords = new double[0];
+      private int numPrimitives = 0;
+
+      // The bin of each tile, the indexes of the primitives that touch it, in order.
+      private int[][] bins      = new int[0][];
+      private int[]   binSizes  = new int[0];
+      private int tilesX, tilesY, tile;
+
+      private boolean inUse = false;
+
+      // Bin every gathered primitive and rasterize the tiles in parallel.
+      private void draw(final PixelSink sink)
+      {
+         final int w = sink.getWidth();
+         final int h = sink.getHeight();
+         tile   = Math.max(1, tileSize);
+         tilesX = (w + tile - 1) / tile;
+         tilesY = (h + tile - 1) / tile;
+         if (tilesX == 0 || tilesY == 0) // an empty sink has no pixels to draw
+         {
+            return;
+         }
+         if (bins.length < tilesX * tilesY)
+         {
+            bins     = new int[tilesX * tilesY][16];
+            binSizes = new int[tilesX * tilesY];
+         }
+         Arrays.fill(binSizes, 0);
+
+         for (int p = 0; p < numPrimitives; ++p)
+         {
+            if (kinds[p] == LINE)
+            {
+               binLine(p, h);
+            }
+            else
+            {
+               binPoint(p, h);
+            }
+         }
+
+         pool.invoke(new TileTask(this, 0, tilesX * tilesY, sink));
+      }
+
+
+      // Copy every primitive's pixel-plane coordinates into the flat arrays.
+      private void gather(final List<Model> models)
+      {
+         int count = 0;
+         for (final Model model : models)
+         {
+            count += model.primitiveList.size();
+         }
+         ensureCapacity(count);
+
+         // the primitives of a Model have no color of their own
+         final int c = Color.white.getRGB();
+
+         int p = 0;
+         for (final Model model : models)
+         {
+            for (final Primitive primitive : model.primitiveList)
+            {
+               final Vertex v0 = model.vertexList.get(primitive.vIndexList.get(0));
+               if (primitive instanceof LineSegment)
+               {
+                  final Vertex v1 = model.vertexList.get(primitive.vIndexList.get(1));
+                  kinds[p] = LINE;
+                  colors[p] = c;
+                  coords[4*p + 0] = v0.x;
+                  coords[4*p + 1] = v0.y;
+                  coords[4*p + 2] = v1.x;
+                  coords[4*p + 3] = v1.y;
+                  ++p;
+               }
+               else if (primitive instanceof Point)
+               {
+                  kinds[p] = POINT;
+                  colors[p] = c;
+                  coords[4*p + 0] = v0.x;
+                  coords[4*p + 1] = v0.y;
+                  coords[4*p + 2] = ((Point)primitive).radius;
+                  ++p;
+               }
+               else // should never get here
+               {
+                  System.err.println("Incorrect primitive: " + primitive);
+               }
+            }
+         }
+         numPrimitives = p;
+      }
+
+      // Copy every primitive of the meshes into the flat arrays, each
+      // mesh's line segments and then its points, as Rasterize does.
+      private void gather(final CompiledMesh[] meshes,
+                                 final int[] offsets,
+                                 final int count,
+                                 final double[] x,
+                                 final double[] y,
+                                 final int c)
+      {
+         int total = 0;
+         for (int i = 0; i < count; ++i)
+         {
+            total += meshes[i].numLines() + meshes[i].numPoints();
+         }
+         ensureCapacity(total);
+
+         int p = 0;
+         for (int i = 0; i < count; ++i)
+         {
+            final CompiledMesh mesh = meshes[i];
+            final int offset = offsets[i];
+
+            final int[] lines = mesh.lineIndexes;
+            for (int j = 0; j < lines.length; j += 2)
+            {
+               final int v0 = offset + lines[j + 0];
+               final int v1 = offset + lines[j + 1];
+               kinds[p] = LINE;
+               colors[p] = c;
+               coords[4*p + 0] = x[v0];
+               coords[4*p + 1] = y[v0];
+               coords[4*p + 2] = x[v1];
+               coords[4*p + 3] = y[v1];
+               ++p;
+            }
+
+            final int[] points = mesh.pointIndexes;
+            for (int run = 0; run < mesh.numPointRuns(); ++run)
+            {
+               final int radius = mesh.pointRunRadius[run];
+               for (int j = mesh.pointRunStart[run]; j < mesh.pointRunStart[run + 1]; ++j)
+               {
+                  final int v = offset + points[j];
+                  kinds[p] = POINT;
+                  colors[p] = c;
+                  coords[4*p + 0] = x[v];
+                  coords[4*p + 1] = y[v];
+                  coords[4*p + 2] = radius;
+                  ++p;
+               }
+            }
+         }
+         numPrimitives = p;
+      }
+
+      private void ensureCapacity(final int count)
+      {
+         if (kinds.length < count)
+         {
+            kinds  = new int[count];
+            colors = new int[count];
+            coords = new double[4 * count];
+         }
+      }
+
+      // Bin a line segment into the tiles that its pixels fall in. Walk the
+      // segment's major axis one tile at a time, and compute the pixels that
+      // Rasterize_Clip_Line draws at the two ends of the segment's piece in
+      // that tile. The minor coordinate moves monotonically, at most one
+      // pixel per step, so the piece draws in exactly the tiles from the
+      // one end's tile to the other's, and each binned tile is entered by
+      // its TileTask in constant time, with Rasterize_Clip_Line's clip().
+      // A segment too far away for the exact integer line is binned with
+      // the double estimate of that line, give or take the slack.
+      private void binLine(final int p, final int h)
+      {
+         final long rx0 = Math.round(coords[4*p + 0]);
+         final long ry0 = Math.round(coords[4*p + 1]);
+         final long rx1 = Math.round(coords[4*p + 2]);
+         final long ry1 = Math.round(coords[4*p + 3]);
+
+         final long max = Rasterize_Clip_Line.maxCoordinate;
+         if ( rx0 < -max || rx0 > max || ry0 < -max || ry0 > max
+           || rx1 < -max || rx1 > max || ry1 < -max || ry1 > max )
+         {
+            binFarLine(p, h);
+            return;
+         }
+
+         if (Math.abs(ry1 - ry0) <= Math.abs(rx1 - rx0)) // along the x-axis
+         {
+            final boolean swap = rx1 < rx0;
+            final long x0 = swap ? rx1 : rx0,  y0 = swap ? ry1 : ry0;
+            final long x1 = swap ? rx0 : rx1,  y1 = swap ? ry0 : ry1;
+            final int tx0 = tileOf(x0 - 1, tilesX);
+            final int tx1 = tileOf(x1 - 1, tilesX);
+            for (int tx = tx0; tx <= tx1; ++tx)
+            {
+               // the logical x-coordinates of this column of tiles that the segment covers
+               final long xa = Math.max(x0, (long)tx * tile + 1);
+               final long xb = Math.min(x1, (long)tx * tile + tile);
+               if (xa > xb) continue;
+               final long ya = (x1 == x0) ? y0 : Rasterize_Clip_Line.minorAt(y0, x1 - x0, y1 - y0, xa - x0);
+               final long yb = (x1 == x0) ? y0 : Rasterize_Clip_Line.minorAt(y0, x1 - x0, y1 - y0, xb - x0);
+               bin(p, tx, tx, tileOf(h - Math.max(ya, yb), tilesY),
+                              tileOf(h - Math.min(ya, yb), tilesY));
+            }
+         }
+         else // along the y-axis
+         {
+            final boolean swap = ry1 < ry0;
+            final long x0 = swap ? rx1 : rx0,  y0 = swap ? ry1 : ry0;
+            final long x1 = swap ? rx0 : rx1,  y1 = swap ? ry0 : ry1;
+            final int ty0 = tileOf(h - y1, tilesY);
+            final int ty1 = tileOf(h - y0, tilesY);
+            for (int ty = ty0; ty <= ty1; ++ty)
+            {
+               // the logical y-coordinates of this row of tiles that the segment covers
+               final long ya = Math.max(y0, h - ((long)ty * tile + tile - 1));
+               final long yb = Math.min(y1, h - (long)ty * tile);
+               if (ya > yb) continue;
+               final long xa = Rasterize_Clip_Line.minorAt(x0, y1 - y0, x1 - x0, ya - y0);
+               final long xb = Rasterize_Clip_Line.minorAt(x0, y1 - y0, x1 - x0, yb - y0);
+               bin(p, tileOf(Math.min(xa, xb) - 1, tilesX),
+                      tileOf(Math.max(xa, xb) - 1, tilesX), ty, ty);
+            }
+         }
+      }
+
+      // Bin a line segment with an endpoint farther than
+      // Rasterize_Clip_Line.maxCoordinate from the origin.
+      private void binFarLine(final int p, final int h)
+      {
+         double x0 = Math.round(coords[4*p + 0]);
+         double y0 = Math.round(coords[4*p + 1]);
+         double x1 = Math.round(coords[4*p + 2]);
+         double y1 = Math.round(coords[4*p + 3]);
+
+         // How far, in pixels, the minor coordinate that Rasterize_Clip_Line
+         // draws can be from the double estimate of the exact line. That is
+         // half a pixel for the rounding, plus the estimate's own error, a
+         // few ulps of the largest coordinate, here generously bounded.
+         final double s = 1 + 8 * Math.ulp(Math.max(Math.max(Math.abs(x0), Math.abs(y0)),
+                                                    Math.max(Math.abs(x1), Math.abs(y1))));
+
+         if (Math.abs(y1 - y0) <= Math.abs(x1 - x0)) // along the x-axis
+         {
+            if (x1 < x0)
+            {
+               double t = x0; x0 = x1; x1 = t;
+                      t = y0; y0 = y1; y1 = t;
+            }
+            final double m = (x1 == x0) ? 0 : (y1 - y0) / (x1 - x0);
+            final int tx0 = tileOf(x0 - 1, tilesX);
+            final int tx1 = tileOf(x1 - 1, tilesX);
+            for (int tx = tx0; tx <= tx1; ++tx)
+            {
+               final double xa = Math.max(x0, tx * tile + 1);
+               final double xb = Math.min(x1, tx * tile + tile);
+               if (xa > xb) continue;
+               final double ya = y0 + (xa - x0) * m;
+               final double yb = y0 + (xb - x0) * m;
+               bin(p, tx, tx, tileOf(h - Math.max(ya, yb) - s, tilesY),
+                              tileOf(h - Math.min(ya, yb) + s, tilesY));
+            }
+         }
+         else // along the y-axis
+         {
+            if (y1 < y0)
+            {
+               double t = x0; x0 = x1; x1 = t;
+                      t = y0; y0 = y1; y1 = t;
+            }
+            final double m = (x1 - x0) / (y1 - y0);
+            final int ty0 = tileOf(h - y1, tilesY);
+            final int ty1 = tileOf(h - y0, tilesY);
+            for (int ty = ty0; ty <= ty1; ++ty)
+            {
+               final double ya = Math.max(y0, h - (ty * tile + tile - 1));
+               final double yb = Math.min(y1, h - ty * tile);
+               if (ya > yb) continue;
+               final double xa = x0 + (ya - y0) * m;
+               final double xb = x0 + (yb - y0) * m;
+               bin(p, tileOf(Math.min(xa, xb) - 1 - s, tilesX),
+                      tileOf(Math.max(xa, xb) - 1 + s, tilesX), ty, ty);
+            }
+         }
+      }
+
+      // Bin a point into the tiles that its square overlaps.
+      private void binPoint(final int p, final int h)
+      {
+         final double x = Math.round(coords[4*p + 0]);
+         final double y = Math.round(coords[4*p + 1]);
+         final int    r = (int)coords[4*p + 2];
+         bin(p, tileOf(x - r - 1, tilesX), tileOf(x + r - 1, tilesX),
+                tileOf(h - y - r, tilesY), tileOf(h - y + r, tilesY));
+      }
+
+      // The tile that a viewport coordinate falls in, clamped to the viewport,
+      // or -1 (or n) when the coordinate is before (or after) every tile.
+      private int tileOf(final double c, final int n)
+      {
+         if (c < 0) return -1;
+         if (c >= (double)n * tile) return n;
+         return (int)c / tile;
+      }
+
+      // Add primitive p to the bins of the tiles in the given range, clamped to the viewport.
+      private void bin(final int p, int tx0, int tx1, int ty0, int ty1)
+      {
+         tx0 = Math.max(tx0, 0); tx1 = Math.min(tx1, tilesX - 1);
+         ty0 = Math.max(ty0, 0); ty1 = Math.min(ty1, tilesY - 1);
+         for (int ty = ty0; ty <= ty1; ++ty)
+         {
+            for (int tx = tx0; tx <= tx1; ++tx)
+            {
+               final int t = ty * tilesX + tx;
+               if (binSizes[t] == bins[t].length)
+               {
+                  bins[t] = Arrays.copyOf(bins[t], 2 * bins[t].length);
+               }
+               bins[t][binSizes[t]++] = p;
+            }
+         }
+      }
+
+   }
+
+
+   // Rasterize a range of tiles, splitting it in half until it is one tile.
+   private static final class TileTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final Frame frame;
+      private final int first, last;
+      private final PixelSink sink;
+
+      TileTask(final Frame frame, final int first, final int last, final PixelSink sink)
+      {
+         this.frame = frame;
+         this.first = first;
+         this.last  = last;
+         this.sink  = sink;
+      }
+
+      @Override
+      protected void compute()
+      {
+         if (last - first > 1)
+         {
+            final int middle = (first + last) >>> 1;
+            invokeAll(new TileTask(frame, first, middle, sink),
+                      new TileTask(frame, middle, last, sink));
+            return;
+         }
+
+         final int tile   = frame.tile;
+         final int tilesX = frame.tilesX;
+         final int[]    kinds  = frame.kinds;
+         final int[]    colors = frame.colors;
+         final double[] coords = frame.coords;
+
+         final int t = first;
+         final int xMin = (t % tilesX) * tile;
+         final int yMin = (t / tilesX) * tile;
+         final int xMax = Math.min(xMin + tile, sink.getWidth());
+         final int yMax = Math.min(yMin + tile, sink.getHeight());
+         final int[] bin = frame.bins[t];
+         for (int i = 0; i < frame.binSizes[t]; ++i)
+         {
+            final int p = bin[i];
+            if (kinds[p] == LINE)
+            {
+               Rasterize_Clip_Line.rasterize(coords[4*p + 0], coords[4*p + 1],
+                                             coords[4*p + 2], coords[4*p + 3],
+                                             colors[p],
+                                             xMin, yMin, xMax, yMax, sink);
+            }
+            else
+            {
+               Rasterize_Clip_Point.rasterize(coords[4*p + 0], coords[4*p + 1],
+                                              (int)coords[4*p + 2],
+                                              colors[p],
+                                              xMin, yMin, xMax, yMax, sink);
+            }
+         }
+      }
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private Rasterize_Tiles() {
+      throw new AssertionError();
+   }
+}
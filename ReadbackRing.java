@@ -0,0 +1,225 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+
+import renderer.framebuffer.*;
+
+import com.jogamp.opengl.*;
+
+/**
+   A ring of pixel-pack buffer objects that lets the renderer read a
+   frame back from the GPU without waiting for the GPU to finish it.
+<p>
+   {@code glReadPixels} into client memory blocks the CPU until the GPU
+   has drawn the whole frame. When a pixel-pack buffer is bound instead,
+   {@code glReadPixels} only queues a copy into that buffer and returns
+   right away. A fence placed after the copy tells us when the pixels
+   have landed, and only then do we map the buffer and copy the pixels
+   into the {@link FrameBuffer}. Meanwhile the CPU is free to submit
+   the next frame.
+<p>
+   Frames complete in the order they were submitted. A frame's future
+   is completed during a later call to {@link PipelineGL#renderAsync},
+   {@link PipelineGL#pollAsync} or {@link PipelineGL#finishAsync}, on the
+   thread that owns the OpenGL context. If every buffer in the ring is
+   still in flight when a new frame is submitted, the oldest frame is
+   waited for; {@link #getStalls} counts how often that happens.
+*/
+public final class ReadbackRing
+{
+   /** The number of frames that can be in flight at one time, at least 1. */
+   public static int ringSize = 3;
+
+   private static int[]    pboIDs   = new int[0];
+   private static long[]   pboSizes = new long[0];
+   private static long[]   fences   = new long[0];
+   private static FrameBuffer.Viewport[]            viewports = new FrameBuffer.Viewport[0];
+   private static CompletableFuture<FrameBuffer>[]  futures   = newFutures(0);
+
+   private static int oldest = 0; // the slot of the oldest frame in flight
+   private static int pending = 0; // the number of frames in flight
+
+   private static long stalls = 0;
+
+   /**
+      Queue a readback of the current frame into the next buffer
+      of the ring.
+
+      @param gl  the {@link GL4} object of the current context
+      @param vp  {@link FrameBuffer.Viewport} that the frame will be copied into
+      @return a future that completes with {@code vp}'s {@link FrameBuffer} once the pixels are copied
+   */
+   static CompletableFuture<FrameBuffer> submit(final GL4 gl,
+                                                final FrameBuffer.Viewport vp)
+   {
+      if (pboIDs.length != Math.max(1, ringSize))
+      {
+         resize(gl);
+      }
+
+      if (pending == pboIDs.length) // every buffer is in flight
+      {
+         stalls += 1;
+         complete(gl, true);
+      }
+
+      final int slot = (oldest + pending) % pboIDs.length;
+      final long numBytes = (long)vp.getWidthVP() * vp.getHeightVP() * 4;
+
+      //https://docs.gl/gl4/glBindBuffer
+      gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, pboIDs[slot]);
+      if (pboSizes[slot] != numBytes)
+      {
+         //https://docs.gl/gl4/glBufferData
+         gl.glBufferData(GL4.GL_PIXEL_PACK_BUFFER, numBytes, null, GL4.GL_STREAM_READ);
+         pboSizes[slot] = numBytes;
+      }
+
+      // with a pixel-pack buffer bound, the last argument is an offset into that buffer
+      //https://docs.gl/gl4/glReadPixels
+      gl.glReadPixels(0, 0, vp.getWidthVP(), vp.getHeightVP(), PixelTransfer.GL_FORMAT, PixelTransfer.GL_TYPE, 0);
+      gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+
+      //https://docs.gl/gl4/glFenceSync
+      fences[slot] = gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+      gl.glFlush(); // make sure the gpu starts on this frame
+
+      final CompletableFuture<FrameBuffer> future = new CompletableFuture<>();
+      viewports[slot] = vp;
+      futures[slot]   = future;
+      pending += 1;
+
+      return future;
+   }
+
+   /**
+      Copy out every frame whose pixels have landed, in submission order,
+      without waiting for any frame that is still on the GPU.
+
+      @param gl  the {@link GL4} object of the current context
+   */
+   static void poll(final GL4 gl)
+   {
+      boolean copied = true;
+      while (copied)
+      {
+         copied = complete(gl, false);
+      }
+   }
+
+   /**
+      Block until every frame in flight has been copied out.
+
+      @param gl  the {@link GL4} object of the current context
+   */
+   static void finish(final GL4 gl)
+   {
+      while (pending > 0)
+      {
+         complete(gl, true);
+      }
+   }
+
+   /** @return the number of frames submitted but not yet copied out */
+   public static int getFramesInFlight() { return pending; }
+
+   /** @return the number of times a submit had to wait for a buffer in the ring */
+   public static long getStalls() { return stalls; }
+
+
+   // Try to copy out the oldest frame in flight. Return true if it was copied.
+   private static boolean complete(final GL4 gl, final boolean wait)
+   {
+      if (pending == 0)
+      {
+         return false;
+      }
+
+      final int slot = oldest;
+
+      //https://docs.gl/gl4/glClientWaitSync
+      final int status = gl.glClientWaitSync(fences[slot],
+                                             GL4.GL_SYNC_FLUSH_COMMANDS_BIT,
+                                             wait ? Long.MAX_VALUE : 0);
+      if (status == GL4.GL_TIMEOUT_EXPIRED)
+      {
+         return false;
+      }
+      gl.glDeleteSync(fences[slot]);
+
+      final FrameBuffer.Viewport vp = viewports[slot];
+      final CompletableFuture<FrameBuffer> future = futures[slot];
+      viewports[slot] = null;
+      futures[slot]   = null;
+      oldest   = (oldest + 1) % pboIDs.length;
+      pending -= 1;
+
+      if (status == GL4.GL_WAIT_FAILED) // give up on this frame, but free its buffer
+      {
+         OpenGLChecker.CheckOpenGLError(gl);
+         future.completeExceptionally(new GLException("glClientWaitSync failed"));
+         return true;
+      }
+
+      //https://docs.gl/gl4/glMapBufferRange
+      gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, pboIDs[slot]);
+      final ByteBuffer pixels = gl.glMapBufferRange(GL4.GL_PIXEL_PACK_BUFFER, 0, pboSizes[slot], GL4.GL_MAP_READ_BIT);
+      try
+      {
+         PixelTransfer.copyToViewport(pixels.order(ByteOrder.nativeOrder()).asIntBuffer(), vp);
+         future.complete(vp.getFrameBuffer());
+      }
+      catch (final RuntimeException e)
+      {
+         future.completeExceptionally(e);
+      }
+      finally
+      {
+         gl.glUnmapBuffer(GL4.GL_PIXEL_PACK_BUFFER);
+         gl.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+      }
+      return true;
+   }
+
+   private static void resize(final GL4 gl)
+   {
+      finish(gl);
+      if (pboIDs.length > 0)
+      {
+         gl.glDeleteBuffers(pboIDs.length, pboIDs, 0);
+      }
+
+      final int size = Math.max(1, ringSize);
+      pboIDs    = new int[size];
+      pboSizes  = new long[size];
+      fences    = new long[size];
+      viewports = new FrameBuffer.Viewport[size];
+      futures   = newFutures(size);
+      oldest    = 0;
+
+      //https://docs.gl/gl4/glGenBuffers
+      gl.glGenBuffers(pboIDs.length, pboIDs, 0);
+   }
+
+   @SuppressWarnings("unchecked")
+   private static CompletableFuture<FrameBuffer>[] newFutures(final int n)
+   {
+      return (CompletableFuture<FrameBuffer>[])new CompletableFuture<?>[n];
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private ReadbackRing() {
+      throw new AssertionError();
+   }
+}
@@ -0,0 +1,296 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.nio.*;
+import java.util.List;
+import java.util.Map;
+
+import renderer.scene.*;
+
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+
+/**
+   Pack every {@link Model} of a {@link Scene} into one vertex arena and
+   one index arena, and submit the whole scene with one
+   {@code glMultiDrawElementsIndirect} for the line segments and one for
+   the points.
+<p>
+   Each model's lines, and each model's points, become one
+   {@code DrawElementsIndirectCommand}
+<pre>{@code
+   { count, instanceCount, firstIndex, baseVertex, baseInstance }
+}</pre>
+   where {@code baseVertex} and {@code firstIndex} locate the model in
+   the arenas, {@code instanceCount} is the number of {@link Position}s
+   that reference the model, and {@code baseInstance} selects those
+   positions' translations from the renderer's per-instance translation
+   buffer.
+<p>
+   The arenas are built from each model's {@link CompiledMesh}, and are
+   rebuilt only when the scene's set of models, or the mesh of one of its
+   models, changes. The command buffer is rebuilt every frame, which costs
+   20 bytes per command.
+<p>
+   Every model in the arena is stored as {@link VertexFormat#FLOAT32},
+   because a single draw cannot switch the decoding of quantized vertices.
+*/
+public final class SceneArena
+{
+   private static final int numCoordsPerPoint = 3;
+   private static final int numIntsPerCommand = 5;
+
+   private static final int[] buffers = new int[4]; // vertex arena, index arena, line commands, point commands
+   private static boolean haveBuffers = false;
+
+   // the models the arenas were built from, and their content versions
+   private static Model[]        models = new Model[0];
+   private static CompiledMesh[] meshes = new CompiledMesh[0];
+
+   // where each model lives in the arenas
+   private static int[] baseVertex      = new int[0];
+   private static int[] firstLineIndex  = new int[0];
+   private static int[] firstPointIndex = new int[0];
+
+   private static long pointSizeByteOffset = 0;
+
+   private static IntBuffer commands;
+
+   private static long compiles = 0;
+
+   /**
+      Rebuild the arenas if the scene's models have changed.
+
+      @param gl         the {@link GL4} object of the current context
+      @param instances  the scene's {@link Position}s grouped by {@link Model}
+   */
+   static void update(final GL4 gl, final Map<Model, List<Position>> instances)
+   {
+      if (!haveBuffers)
+      {
+         //https://docs.gl/gl4/glGenBuffers
+         gl.glGenBuffers(buffers.length, buffers, 0);
+         haveBuffers = true;
+      }
+
+      if (!isCurrent(instances))
+      {
+         compile(gl, instances);
+      }
+   }
+
+   /**
+      Draw every group of instances with multi-draw-indirect calls.
+      {@link #update} must have been called with the same instances.
+      <p>
+      The per-instance translations must already be uploaded, in the
+      iteration order of {@code instances}.
+
+      @param gl              the {@link GL4} object of the current context
+      @param instances       the scene's {@link Position}s grouped by {@link Model}
+      @param vertexAttribID  the id of the vertex shader's {@code vertex} attribute
+      @param sizeAttribID    the id of the vertex shader's {@code pointSize} attribute
+      @return the number of draw calls issued
+   */
+   static int draw(final GL4 gl,
+                   final Map<Model, List<Position>> instances,
+                   final int vertexAttribID,
+                   final int sizeAttribID)
+   {
+      final int numModels = models.length;
+      final int[] numInstances = new int[numModels];
+      final int[] baseInstance = new int[numModels];
+      int m = 0;
+      int instance = 0;
+      for (final List<Position> group : instances.values())
+      {
+         numInstances[m] = group.size();
+         baseInstance[m] = instance;
+         instance += group.size();
+         m += 1;
+      }
+
+      // Count the commands, one for each model's lines and one for its points.
+      int numLineCommands  = 0;
+      int numPointCommands = 0;
+      for (final CompiledMesh mesh : meshes)
+      {
+         if (mesh.numLines() > 0)
+         {
+            numLineCommands += 1;
+         }
+         if (mesh.numPoints() > 0)
+         {
+            numPointCommands += 1;
+         }
+      }
+      final int numCommands = numLineCommands + numPointCommands;
+
+      if (commands == null || commands.capacity() < numCommands * numIntsPerCommand)
+      {
+         commands = Buffers.newDirectIntBuffer(Math.max(numCommands, 1) * numIntsPerCommand);
+      }
+      commands.clear();
+
+      // The line commands come first, then the point commands.
+      for (m = 0; m < numModels; ++m)
+      {
+         if (meshes[m].numLines() > 0)
+         {
+            putCommand(meshes[m].lineIndexes.length, numInstances[m], firstLineIndex[m], baseVertex[m], baseInstance[m]);
+         }
+      }
+      for (m = 0; m < numModels; ++m)
+      {
+         if (meshes[m].numPoints() > 0)
+         {
+            putCommand(meshes[m].pointIndexes.length, numInstances[m], firstPointIndex[m], baseVertex[m], baseInstance[m]);
+         }
+      }
+      commands.flip();
+
+      // The line and point commands go into separate buffers, so that each
+      // draw reads its commands from offset 0 of the bound indirect buffer.
+      // JOGL's glMultiDrawElementsIndirect takes the offset as a Buffer, and
+      // a null Buffer is the only way to give it an offset (of 0).
+      final int numLineInts = numLineCommands * numIntsPerCommand;
+      //https://docs.gl/gl4/glBufferData
+      gl.glBindBuffer(GL4.GL_DRAW_INDIRECT_BUFFER, buffers[3]);
+      commands.position(numLineInts);
+      gl.glBufferData(GL4.GL_DRAW_INDIRECT_BUFFER, (long)commands.remaining() * Buffers.SIZEOF_INT, commands, GL4.GL_STREAM_DRAW);
+      gl.glBindBuffer(GL4.GL_DRAW_INDIRECT_BUFFER, buffers[2]);
+      commands.position(0).limit(numLineInts);
+      gl.glBufferData(GL4.GL_DRAW_INDIRECT_BUFFER, (long)numLineInts * Buffers.SIZEOF_INT, commands, GL4.GL_STREAM_DRAW);
+      OpenGLChecker.checkCall(gl);
+
+      // The point sizes follow every model's coordinates in the vertex arena,
+      // and baseVertex relocates both attributes.
+      gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, buffers[0]);
+      gl.glVertexAttribPointer(vertexAttribID, numCoordsPerPoint, GL4.GL_FLOAT, false, 0, 0);
+      gl.glVertexAttribPointer(sizeAttribID, 1, GL4.GL_FLOAT, false, 0, pointSizeByteOffset);
+      gl.glBindBuffer(GL4.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+
+      final int stride = numIntsPerCommand * Buffers.SIZEOF_INT;
+      int drawCalls = 0;
+
+      //https://docs.gl/gl4/glMultiDrawElementsIndirect
+      if (numLineCommands > 0)
+      {
+         gl.glMultiDrawElementsIndirect(GL4.GL_LINES, GL4.GL_UNSIGNED_INT, null, numLineCommands, stride);
+         OpenGLChecker.checkCall(gl);
+         drawCalls += 1;
+      }
+      if (numPointCommands > 0)
+      {
+         gl.glBindBuffer(GL4.GL_DRAW_INDIRECT_BUFFER, buffers[3]);
+         gl.glMultiDrawElementsIndirect(GL4.GL_POINTS, GL4.GL_UNSIGNED_INT, null, numPointCommands, stride);
+         OpenGLChecker.checkCall(gl);
+         drawCalls += 1;
+      }
+
+      gl.glBindBuffer(GL4.GL_DRAW_INDIRECT_BUFFER, 0);
+      return drawCalls;
+   }
+
+   /** @return the number of times the arenas have been rebuilt */
+   public static long getCompiles() { return compiles; }
+
+
+   // Are the arenas built from exactly these models, at their current content versions?
+   private static boolean isCurrent(final Map<Model, List<Position>> instances)
+   {
+      if (instances.size() != models.length)
+      {
+         return false;
+      }
+      int m = 0;
+      for (final Model model : instances.keySet())
+      {
+         if (model != models[m] || CompiledMesh.of(model) != meshes[m])
+         {
+            return false;
+         }
+         m += 1;
+      }
+      return true;
+   }
+
+   private static void compile(final GL4 gl, final Map<Model, List<Position>> instances)
+   {
+      final int numModels = instances.size();
+      models          = instances.keySet().toArray(new Model[numModels]);
+      meshes          = new CompiledMesh[numModels];
+      baseVertex      = new int[numModels];
+      firstLineIndex  = new int[numModels];
+      firstPointIndex = new int[numModels];
+
+      // Size the arenas.
+      int totalVertexes = 0;
+      int totalIndexes  = 0;
+      for (int m = 0; m < numModels; ++m)
+      {
+         final CompiledMesh mesh = CompiledMesh.of(models[m]);
+         meshes[m]          = mesh;
+         baseVertex[m]      = totalVertexes;
+         firstLineIndex[m]  = totalIndexes;
+         firstPointIndex[m] = totalIndexes + mesh.lineIndexes.length;
+         totalVertexes     += mesh.numVertexes;
+         totalIndexes      += mesh.lineIndexes.length + mesh.pointIndexes.length;
+      }
+
+      // Fill the arenas. Indexes stay local to their model, baseVertex relocates them.
+      final FloatBuffer vertexArena = Buffers.newDirectFloatBuffer(Math.max(totalVertexes, 1) * (numCoordsPerPoint + 1));
+      final IntBuffer   indexArena  = Buffers.newDirectIntBuffer(Math.max(totalIndexes, 1));
+      for (final CompiledMesh mesh : meshes)
+      {
+         for (int i = 0; i < mesh.numVertexes; ++i)
+         {
+            vertexArena.put((float)mesh.x[i]);
+            vertexArena.put((float)mesh.y[i]);
+            vertexArena.put((float)mesh.z[i]);
+         }
+         indexArena.put(mesh.lineIndexes);
+         indexArena.put(mesh.pointIndexes);
+      }
+      pointSizeByteOffset = (long)vertexArena.position() * Buffers.SIZEOF_FLOAT;
+      for (final CompiledMesh mesh : meshes)
+      {
+         vertexArena.put(mesh.pointSize);
+      }
+      vertexArena.flip();
+      indexArena.flip();
+
+      //https://docs.gl/gl4/glBufferData
+      gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, buffers[0]);
+      gl.glBufferData(GL4.GL_ARRAY_BUFFER, (long)vertexArena.limit() * Buffers.SIZEOF_FLOAT, vertexArena, GL4.GL_STATIC_DRAW);
+      gl.glBindBuffer(GL4.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+      gl.glBufferData(GL4.GL_ELEMENT_ARRAY_BUFFER, (long)indexArena.limit() * Buffers.SIZEOF_INT, indexArena, GL4.GL_STATIC_DRAW);
+      OpenGLChecker.checkCall(gl);
+
+      compiles += 1;
+   }
+
+   private static void putCommand(final int count, final int instanceCount,
+                                  final int firstIndex, final int baseVertex,
+                                  final int baseInstance)
+   {
+      commands.put(count);
+      commands.put(instanceCount);
+      commands.put(firstIndex);
+      commands.put(baseVertex);
+      commands.put(baseInstance);
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private SceneArena() {
+      throw new AssertionError();
+   }
+}
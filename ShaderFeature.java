@@ -0,0 +1,30 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+/**
+   The choices that a {@link ShaderStage} can be specialized on.
+<p>
+   A shader program variant is described by the set of features that
+   are turned on. The default, with no features turned on, is
+   float-precision perspective projection of float32 vertices with
+   one translation per instance.
+*/
+public enum ShaderFeature
+{
+   /** Project parallel to the z-axis instead of toward the origin. */
+   PARALLEL_PROJECTION,
+
+   /** Do the projection's divide in double precision. */
+   DOUBLE_PRECISION,
+
+   /** Decode {@link VertexFormat#INT16} vertices against the model's bounding box. */
+   QUANTIZED_VERTICES,
+
+   /** Take the translation from a uniform instead of from the per-instance attribute. */
+   UNIFORM_TRANSLATION
+}
@@ -0,0 +1,509 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.jogamp.opengl.*;
+
+/**
+   Compose a vertex shader out of a sequence of {@link ShaderStage}s
+   and keep one linked program for each variant that gets used.
+<p>
+   A variant is a set of {@link ShaderFeature}s. For each variant, the
+   graph emits the inputs and uniforms that the variant's stages need,
+   each stage's function specialized for the variant, and a {@code main}
+   that calls the stages in order. The program is then restored from the
+   {@link ProgramCache} or compiled and linked from source, and kept for
+   the life of the context.
+<p>
+   A variant is first reduced to the features that at least one stage
+   depends on, so features that no stage cares about never cause a
+   second, identical program to be built.
+<p>
+   Compiling and linking a program can take longer than rendering a
+   frame. {@link #precompile} starts building a list of variants (for
+   example, {@link #allVariants}) without waiting for any of them, and
+   {@link #program} then waits only for the variant it is asked for.
+   The programs are built in the background in one of two ways.
+<ul>
+<li>If the driver has {@code GL_KHR_parallel_shader_compile} or
+    {@code GL_ARB_parallel_shader_compile}, every variant is compiled
+    and linked in the renderer's own context. The driver does the work
+    on its own threads, and {@code GL_COMPLETION_STATUS} tells us, without
+    blocking, when a variant is done.
+<li>Otherwise (Mesa's llvmpipe, for example), every variant is built by
+    a pool of {@link #compileThreads} worker threads. Each worker has its
+    own offscreen context, shared with the renderer's context, so the
+    programs the workers link can be used by the renderer.
+</ul>
+   When {@link #backgroundCompile} is {@code false}, {@link #precompile}
+   builds every variant before it returns.
+*/
+public final class ShaderGraph
+{
+   /**
+      A linked program for one variant of a {@link ShaderGraph}.
+   */
+   public static final class Program
+   {
+      /** The features the program was specialized for. */
+      public final Set<ShaderFeature> variant;
+
+      private volatile int id;         // 0 until a worker has created the program
+      private String[] vertexSource;   // kept until the program is known to be linked
+      private String   key;            // the ProgramCache key, null if restored from the cache
+      private CompletableFuture<Integer> worker; // the worker building the program, if any
+      private boolean  linked = false; // true once the program is known to be linked
+
+      private final Map<String, Integer> uniformIDs = new HashMap<>();
+
+      private Program(final Set<ShaderFeature> variant)
+      {
+         this.variant = variant;
+      }
+
+      /**
+         @return the program's id, which is valid once {@link ShaderGraph#program} has returned this program
+      */
+      public int id()
+      {
+         return id;
+      }
+
+      /**
+         @param gl    the {@link GL4} object of the current context
+         @param name  the name of a uniform
+         @return the uniform's location in this program, or -1 if this variant does not have it
+      */
+      public int uniform(final GL4 gl, final String name)
+      {
+         //https://docs.gl/gl4/glGetUniformLocation
+         return uniformIDs.computeIfAbsent(name, n -> gl.glGetUniformLocation(id, n));
+      }
+   }
+
+   /** When {@code true}, {@link #precompile} builds programs in the background. */
+   public static boolean backgroundCompile = true;
+
+   /** The number of worker threads used when the driver cannot compile in parallel itself. */
+   public static int compileThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+   // GL_COMPLETION_STATUS_KHR and GL_COMPLETION_STATUS_ARB have the same value
+   private static final int GL_COMPLETION_STATUS = 0x91B1;
+
+   private static ExecutorService workers;
+   private static volatile GLContext sharedContext; // the context the workers share programs with
+   private static final ThreadLocal<GL4> workerGL = new ThreadLocal<>();
+
+   private final List<ShaderStage> stages;
+   private final Set<ShaderFeature> features; // every feature some stage depends on
+   private final String[] fragmentShaderSourceCode;
+   private final String[] feedbackVaryings;
+
+   private final Map<Set<ShaderFeature>, Program> programs = new HashMap<>();
+
+   private long builds = 0;
+   private long waits  = 0;
+   private Boolean driverParallel; // does the driver compile in parallel, null until asked
+
+   /**
+      @param fragmentShaderSourceCode  the fragment shader every variant is linked with
+      @param feedbackVaryings          the vertex shader outputs to capture with transform feedback
+      @param stages                    the vertex shader's stages, in the order they are applied
+   */
+   public ShaderGraph(final String[] fragmentShaderSourceCode,
+                      final String[] feedbackVaryings,
+                      final ShaderStage... stages)
+   {
+      this.stages = Collections.unmodifiableList(Arrays.asList(stages.clone()));
+      this.fragmentShaderSourceCode = fragmentShaderSourceCode.clone();
+      this.feedbackVaryings = feedbackVaryings.clone();
+
+      final Set<ShaderFeature> features = EnumSet.noneOf(ShaderFeature.class);
+      for (final ShaderStage stage : stages)
+      {
+         features.addAll(stage.features);
+      }
+      this.features = Collections.unmodifiableSet(features);
+   }
+
+   /**
+      Reduce a set of features to the ones this graph's stages depend on.
+
+      @param variant  any set of {@link ShaderFeature}s
+      @return the features of {@code variant} that change this graph's GLSL
+   */
+   public Set<ShaderFeature> normalize(final Set<ShaderFeature> variant)
+   {
+      final Set<ShaderFeature> normal = EnumSet.noneOf(ShaderFeature.class);
+      normal.addAll(variant);
+      normal.retainAll(features);
+      return normal;
+   }
+
+   /**
+      Emit the vertex shader for one variant.
+
+      @param variant  the features to specialize the stages for
+      @return the vertex shader's GLSL source code, one line per string
+   */
+   public String[] vertexSource(final Set<ShaderFeature> variant)
+   {
+      final Set<ShaderFeature> normal = normalize(variant);
+
+      // Two stages may read the same attribute or uniform,
+      // so declare each one only once.
+      final Set<String> declarations = new LinkedHashSet<>();
+      for (final ShaderStage stage : stages)
+      {
+         declarations.addAll(Arrays.asList(stage.inputs(normal)));
+      }
+      for (final ShaderStage stage : stages)
+      {
+         declarations.addAll(Arrays.asList(stage.uniforms(normal)));
+      }
+
+      final List<String> source = new ArrayList<>();
+      source.add("#version 450 \n");
+      for (final String declaration : declarations)
+      {
+         source.add(declaration + " \n");
+      }
+      for (final ShaderStage stage : stages)
+      {
+         source.add("vec4 " + stage.name + "(vec4 v) \n");
+         source.add("{ \n");
+         for (final String line : stage.body(normal))
+         {
+            source.add("\t" + line + " \n");
+         }
+         source.add("} \n");
+      }
+      source.add("void main(void) \n");
+      source.add("{ \n");
+      source.add("\tvec4 v = vec4(0, 0, 0, 1); \n");
+      for (final ShaderStage stage : stages)
+      {
+         source.add("\tv = " + stage.name + "(v); \n");
+      }
+      source.add("\tgl_Position = v; \n");
+      source.add("} \n");
+
+      return source.toArray(new String[0]);
+   }
+
+   /**
+      Return every distinct variant of this graph, one for each
+      combination of the features its stages depend on.
+
+      @return every variant this graph can build
+   */
+   public List<Set<ShaderFeature>> allVariants()
+   {
+      final ShaderFeature[] f = features.toArray(new ShaderFeature[0]);
+      final List<Set<ShaderFeature>> variants = new ArrayList<>();
+      for (int bits = 0; bits < (1 << f.length); ++bits)
+      {
+         final Set<ShaderFeature> variant = EnumSet.noneOf(ShaderFeature.class);
+         for (int i = 0; i < f.length; ++i)
+         {
+            if ((bits & (1 << i)) != 0)
+            {
+               variant.add(f[i]);
+            }
+         }
+         variants.add(variant);
+      }
+      return variants;
+   }
+
+   /**
+      Start building the programs for the given variants without
+      waiting for them, unless {@link #backgroundCompile} is off.
+
+      @param gl        the {@link GL4} object of the current context
+      @param variants  the variants that are likely to be needed
+   */
+   public void precompile(final GL4 gl, final Collection<Set<ShaderFeature>> variants)
+   {
+      for (final Set<ShaderFeature> variant : variants)
+      {
+         final Program program = start(gl, variant);
+         if (!backgroundCompile)
+         {
+            await(gl, program);
+         }
+      }
+   }
+
+   /**
+      Return the linked program for a variant, building it the first
+      time the variant is asked for. If the variant is still being
+      built in the background, wait for it, and only for it.
+
+      @param gl       the {@link GL4} object of the current context
+      @param variant  the features the program must be specialized for
+      @return the variant's {@link Program}
+   */
+   public Program program(final GL4 gl, final Set<ShaderFeature> variant)
+   {
+      final Program program = start(gl, variant);
+      await(gl, program);
+      return program;
+   }
+
+   /**
+      Ask, without waiting, whether a variant's program is ready to use.
+
+      @param gl       the {@link GL4} object of the current context
+      @param variant  the features of a program
+      @return {@code true} if {@link #program} would not have to wait for the variant
+   */
+   public boolean isReady(final GL4 gl, final Set<ShaderFeature> variant)
+   {
+      final Program program = programs.get(normalize(variant));
+      if (program == null)
+      {
+         return false;
+      }
+      if (program.linked)
+      {
+         return true;
+      }
+      if (program.worker != null)
+      {
+         return program.worker.isDone();
+      }
+      if (program.key == null)  // restored from the ProgramCache
+      {
+         return true;
+      }
+      final int[] status = new int[1];
+      gl.glGetProgramiv(program.id, GL_COMPLETION_STATUS, status, 0);
+      return status[0] == GL4.GL_TRUE;
+   }
+
+   /**
+      Delete every program this graph has built.
+
+      @param gl  the {@link GL4} object of the current context
+   */
+   public void delete(final GL4 gl)
+   {
+      for (final Program program : programs.values())
+      {
+         await(gl, program); // a worker may still be using it
+         //https://docs.gl/gl4/glDeleteProgram
+         gl.glDeleteProgram(program.id);
+      }
+      programs.clear();
+   }
+
+   /** @return the stages of this graph, in order */
+   public List<ShaderStage> getStages() { return stages; }
+
+   /** @return the number of variants this graph has built so far */
+   public int getNumPrograms() { return programs.size(); }
+
+   /** @return the number of variants that were compiled from source instead of restored from the {@link ProgramCache} */
+   public long getBuilds() { return builds; }
+
+   /** @return the number of times {@link #program} had to wait for a variant that was not ready */
+   public long getWaits() { return waits; }
+
+
+   // Find the variant's program, or start building it.
+   private Program start(final GL4 gl, final Set<ShaderFeature> variant)
+   {
+      final Set<ShaderFeature> normal = normalize(variant);
+      Program program = programs.get(normal);
+      if (program != null)
+      {
+         return program;
+      }
+
+      program = new Program(Collections.unmodifiableSet(normal));
+      program.vertexSource = vertexSource(normal);
+      programs.put(normal, program);
+
+      if (driverParallel == null)
+      {
+         //https://registry.khronos.org/OpenGL/extensions/KHR/KHR_parallel_shader_compile.txt
+         driverParallel = gl.isExtensionAvailable("GL_KHR_parallel_shader_compile")
+                       || gl.isExtensionAvailable("GL_ARB_parallel_shader_compile");
+      }
+
+      if (!backgroundCompile || driverParallel)
+      {
+         // With the extension, the driver returns from the link right away.
+         link(gl, program);
+      }
+      else
+      {
+         sharedContext = gl.getContext();
+         final Program p = program;
+         p.worker = CompletableFuture.supplyAsync(() -> {
+            final GL4 wgl = workerGL();
+            link(wgl, p);
+            finishLink(wgl, p);
+            wgl.glFinish(); // the renderer's context may use the program as soon as this returns
+            return p.id;
+         }, workers());
+      }
+      return program;
+   }
+
+   // Wait until the variant's program is linked.
+   private void await(final GL4 gl, final Program program)
+   {
+      if (program.linked)
+      {
+         return;
+      }
+      if (!isReady(gl, program.variant))
+      {
+         waits += 1;
+      }
+      if (program.worker != null)
+      {
+         program.id = program.worker.join();
+      }
+      else
+      {
+         finishLink(gl, program); // GL_LINK_STATUS blocks until the link is done
+      }
+      program.linked = true;
+   }
+
+   // Restore the program from the cache, or compile and link it, without asking whether it worked.
+   private void link(final GL4 gl, final Program program)
+   {
+      final String[] vertexShaderSourceCode = program.vertexSource;
+
+      // restore the program from the on-disk cache if this driver has linked it before
+      final String programKey = ProgramCache.key(gl, vertexShaderSourceCode,
+                                                     fragmentShaderSourceCode,
+                                                     feedbackVaryings);
+      final int cachedProgramID = ProgramCache.load(gl, programKey);
+      if (cachedProgramID != 0)
+      {
+         program.id = cachedProgramID;
+         program.vertexSource = null;
+         return;
+      }
+      synchronized (this)
+      {
+         builds += 1;
+      }
+
+      // create the vertex shader and get its id, set the source code, and compile it
+      //https://docs.gl/gl4/glCreateShader
+      //https://docs.gl/gl4/glShaderSource
+      //https://docs.gl/gl4/glCompileShader
+      final int vertexShaderID = gl.glCreateShader(GL4.GL_VERTEX_SHADER);
+      gl.glShaderSource(vertexShaderID, vertexShaderSourceCode.length, vertexShaderSourceCode, null);
+      gl.glCompileShader(vertexShaderID);
+
+      // create the fragment shader and get its id, set the source code, and compile it
+      final int fragmentShaderID = gl.glCreateShader(GL4.GL_FRAGMENT_SHADER);
+      gl.glShaderSource(fragmentShaderID, fragmentShaderSourceCode.length, fragmentShaderSourceCode, null);
+      gl.glCompileShader(fragmentShaderID);
+
+      // create the program, attach the compiled vertex and fragment shader, and link it all together
+      //https://docs.gl/gl4/glCreateProgram
+      //https://docs.gl/gl4/glAttachShader
+      //https://docs.gl/gl4/glTransformFeedbackVaryings
+      //https://docs.gl/gl4/glLinkProgram
+      final int programID = gl.glCreateProgram();
+      gl.glAttachShader(programID, vertexShaderID);
+      gl.glAttachShader(programID, fragmentShaderID);
+      gl.glTransformFeedbackVaryings(programID, feedbackVaryings.length,
+                                     feedbackVaryings, GL4.GL_INTERLEAVED_ATTRIBS);
+      ProgramCache.prepare(gl, programID);
+      gl.glLinkProgram(programID);
+
+      // the link has its own copy of the compiled code
+      //https://docs.gl/gl4/glDetachShader
+      gl.glDetachShader(programID, vertexShaderID);
+      gl.glDetachShader(programID, fragmentShaderID);
+      gl.glDeleteShader(vertexShaderID);
+      gl.glDeleteShader(fragmentShaderID);
+
+      program.id  = programID;
+      program.key = programKey;
+   }
+
+   // Check a program that was linked from source, and save it in the cache.
+   private void finishLink(final GL4 gl, final Program program)
+   {
+      if (program.key == null) // restored from the cache, which checked it
+      {
+         return;
+      }
+      if (OpenGLChecker.programLinked(gl, program.id))
+      {
+         ProgramCache.save(gl, program.id, program.key);
+      }
+      else
+      {
+         System.err.println(Arrays.toString(program.vertexSource));
+         OpenGLChecker.printProgramLog(gl, program.id);
+      }
+      program.vertexSource = null;
+      program.key = null;
+   }
+
+   // The context of the calling worker thread, created the first time the worker needs it.
+   private static GL4 workerGL()
+   {
+      GL4 gl = workerGL.get();
+      if (gl == null)
+      {
+         final GLProfile glProf = GLProfile.get("GL4");
+         final GLCapabilities glCap = new GLCapabilities(glProf);
+         glCap.setPBuffer(true);
+         glCap.setDoubleBuffered(false);
+
+         // a tiny pbuffer whose context shares its programs with the renderer's context
+         final GLOffscreenAutoDrawable drawable =
+            GLDrawableFactory.getFactory(glProf).createOffscreenAutoDrawable(null, glCap, null, 1, 1);
+         drawable.setSharedContext(sharedContext);
+         drawable.display();
+         drawable.getContext().makeCurrent();
+
+         gl = drawable.getGL().getGL4();
+         workerGL.set(gl);
+      }
+      return gl;
+   }
+
+   private static synchronized ExecutorService workers()
+   {
+      if (workers == null)
+      {
+         workers = Executors.newFixedThreadPool(compileThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "ShaderGraph compiler");
+            thread.setDaemon(true); // never keep the JVM alive
+            return thread;
+         });
+      }
+      return workers;
+   }
+}
@@ -0,0 +1,100 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+   One stage of the vertex shader, written in GLSL.
+<p>
+   Every stage is a GLSL function
+<pre>{@code
+   vec4 name(vec4 v)
+}</pre>
+   that takes the vertex as the previous stage left it and returns it
+   for the next stage. A {@link ShaderGraph} calls the stages in order,
+   starting from {@code vec4(0, 0, 0, 1)}, and writes the last stage's
+   result to {@code gl_Position}.
+<p>
+   A stage declares the vertex attributes it reads (its inputs), the
+   uniforms it reads, and the lines of its function body. Each of these
+   can depend on the {@link ShaderFeature}s of the program variant being
+   built, but only on the features the stage lists in {@link #features}.
+   So, for example, the projection stage has a perspective body and a
+   parallel body, and the {@link ShaderGraph} emits only the one that
+   the variant needs, instead of one body that branches at run time.
+*/
+public final class ShaderStage
+{
+   /** The name of the stage's GLSL function. */
+   public final String name;
+
+   /** The features this stage's GLSL depends on. */
+   public final Set<ShaderFeature> features;
+
+   private final Function<Set<ShaderFeature>, String[]> inputs;
+   private final Function<Set<ShaderFeature>, String[]> uniforms;
+   private final Function<Set<ShaderFeature>, String[]> body;
+
+   /**
+      @param name      the name of the stage's GLSL function
+      @param features  the {@link ShaderFeature}s the stage's GLSL depends on
+      @param inputs    the stage's vertex attribute declarations, for a given variant
+      @param uniforms  the stage's uniform declarations, for a given variant
+      @param body      the lines of the stage's function body, for a given variant
+   */
+   public ShaderStage(final String name,
+                      final Set<ShaderFeature> features,
+                      final Function<Set<ShaderFeature>, String[]> inputs,
+                      final Function<Set<ShaderFeature>, String[]> uniforms,
+                      final Function<Set<ShaderFeature>, String[]> body)
+   {
+      this.name     = name;
+      this.features = Collections.unmodifiableSet(features.isEmpty()
+                                                  ? EnumSet.noneOf(ShaderFeature.class)
+                                                  : EnumSet.copyOf(features));
+      this.inputs   = inputs;
+      this.uniforms = uniforms;
+      this.body     = body;
+   }
+
+   /**
+      @param variant  the features of the program being built
+      @return the vertex attribute declarations this stage needs in {@code variant}
+   */
+   public String[] inputs(final Set<ShaderFeature> variant)
+   {
+      return inputs.apply(variant);
+   }
+
+   /**
+      @param variant  the features of the program being built
+      @return the uniform declarations this stage needs in {@code variant}
+   */
+   public String[] uniforms(final Set<ShaderFeature> variant)
+   {
+      return uniforms.apply(variant);
+   }
+
+   /**
+      @param variant  the features of the program being built
+      @return the lines of this stage's function body in {@code variant}
+   */
+   public String[] body(final Set<ShaderFeature> variant)
+   {
+      return body.apply(variant);
+   }
+
+   @Override
+   public String toString()
+   {
+      return "ShaderStage: " + name + " " + features;
+   }
+}
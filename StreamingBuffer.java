@@ -0,0 +1,299 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import renderer.scene.*;
+import renderer.scene.primitives.*;
+
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+
+/**
+   Stream the geometry of dynamic {@link Model}s, models whose vertices
+   change every frame, through one persistently mapped buffer object.
+<p>
+   Re-specifying a buffer with {@code glBufferData} every frame makes the
+   driver allocate new storage and copy the data. Instead, this class
+   allocates immutable storage once with {@code glBufferStorage}, maps it
+   once with {@code GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT}, and
+   leaves it mapped. The renderer writes each dynamic model's vertices and
+   indexes straight into the mapped memory, with no intermediate arrays.
+<p>
+   The buffer is split into {@link #numRegions} regions used round-robin,
+   one region per frame. A fence placed at the end of each frame tells us
+   when the GPU is done reading that frame's region. If a region's fence
+   has not signaled by the time the ring comes back around to it, the
+   ring is too short for the GPU's latency; {@link #getStalls} counts
+   those waits. If a frame's dynamic geometry does not fit in a region,
+   {@link #getOverflows} counts it, the models that did not fit are
+   uploaded through the {@link GeometryCache} instead, and the regions
+   are enlarged before the next frame.
+*/
+public final class StreamingBuffer
+{
+   /** The number of frames of dynamic geometry the ring holds, at least 1. */
+   public static int numRegions = 3;
+
+   /** The size, in bytes, of each frame's region of the ring. */
+   public static long regionSize = 4L * 1024 * 1024;
+
+   private static final float[] noScale  = {1, 1, 1};
+   private static final float[] noOffset = {0, 0, 0};
+
+   private static final Set<Model> dynamicModels =
+                             Collections.newSetFromMap(new WeakHashMap<>());
+
+   private static final int[] buffer = new int[1];
+   private static ByteBuffer mapped;   // the whole ring, mapped for the life of the buffer
+   private static long[]     fences = new long[0];
+   private static long       allocatedRegionSize = 0;
+
+   private static int  region = 0;     // the region being written this frame
+   private static long regionStart = 0;
+   private static long regionUsed  = 0;
+   private static long bytesNeeded = 0; // this frame's dynamic geometry, whether it fit or not
+
+   private static float[] pointSizes = new float[0]; // scratch for write()
+
+   private static long stalls        = 0;
+   private static long overflows     = 0;
+   private static long bytesStreamed = 0;
+
+   /**
+      Stream the given {@link Model}'s geometry every frame instead
+      of keeping it in the {@link GeometryCache}.
+
+      @param model  {@link Model} whose vertices change every frame
+   */
+   public static void markDynamic(final Model model)
+   {
+      dynamicModels.add(model);
+   }
+
+   /**
+      Go back to caching the given {@link Model}'s geometry.
+
+      @param model  {@link Model} that no longer changes every frame
+   */
+   public static void markStatic(final Model model)
+   {
+      dynamicModels.remove(model);
+      GeometryCache.invalidate(model);
+   }
+
+   /**
+      @param model  a {@link Model}
+      @return {@code true} if the model's geometry is streamed every frame
+   */
+   public static boolean isDynamic(final Model model)
+   {
+      return dynamicModels.contains(model);
+   }
+
+   /** @return the number of times the ring had to wait for the GPU to release a region */
+   public static long getStalls() { return stalls; }
+
+   /** @return the number of frames whose dynamic geometry did not fit in a region */
+   public static long getOverflows() { return overflows; }
+
+   /** @return the total number of geometry bytes written into the ring */
+   public static long getBytesStreamed() { return bytesStreamed; }
+
+
+   /**
+      Move on to the next region of the ring, waiting for the GPU
+      to finish with it if necessary.
+
+      @param gl  the {@link GL4} object of the current context
+   */
+   static void beginFrame(final GL4 gl)
+   {
+      if (mapped == null
+       || fences.length != Math.max(1, numRegions)
+       || allocatedRegionSize != regionSize)
+      {
+         allocate(gl);
+      }
+
+      region = (region + 1) % fences.length;
+      if (fences[region] != 0)
+      {
+         //https://docs.gl/gl4/glClientWaitSync
+         if (gl.glClientWaitSync(fences[region], 0, 0) == GL4.GL_TIMEOUT_EXPIRED)
+         {
+            stalls += 1;
+            gl.glClientWaitSync(fences[region], GL4.GL_SYNC_FLUSH_COMMANDS_BIT, Long.MAX_VALUE);
+         }
+         gl.glDeleteSync(fences[region]);
+         fences[region] = 0;
+      }
+
+      regionStart = region * regionSize;
+      regionUsed  = 0;
+      bytesNeeded = 0;
+   }
+
+   /**
+      Write a {@link Model}'s vertices and indexes into this frame's region.
+
+      @param model  dynamic {@link Model} to stream
+      @return where the geometry was written, or {@code null} if it did not fit
+   */
+   static GeometryCache.Entry write(final Model model)
+   {
+      final int numVertexes = model.vertexList.size();
+
+      // The mapped memory is write-only, so find each vertex's point
+      // size, as in CompiledMesh.pointSize, before writing anything.
+      // Points with a negative radius are not drawn, as in CompiledMesh.
+      if (pointSizes.length < numVertexes)
+      {
+         pointSizes = new float[Math.max(numVertexes, 2 * pointSizes.length)];
+      }
+      Arrays.fill(pointSizes, 0, numVertexes, 1);
+
+      int numPoints = 0;
+      int numLines  = 0;
+      for (final Primitive p : model.primitiveList)
+      {
+         if (p instanceof Point && ((Point)p).radius >= 0)
+         {
+            final int v = p.vIndexList.get(0);
+            pointSizes[v] = Math.max(pointSizes[v], 2 * ((Point)p).radius + 1);
+            numPoints += 1;
+         }
+         else if (p instanceof LineSegment)
+            numLines += 1;
+      }
+
+      final long coordBytes = (long)numVertexes * VertexFormat.FLOAT32.stride;
+      final long sizeBytes  = (long)numVertexes * Buffers.SIZEOF_FLOAT;
+      final long vertBytes  = coordBytes + sizeBytes;
+      final long indBytes   = (long)(numLines * 2 + numPoints) * Buffers.SIZEOF_INT;
+      bytesNeeded += vertBytes + indBytes;
+      if (regionUsed + vertBytes + indBytes > regionSize)
+      {
+         return null;
+      }
+
+      final long vertexByteOffset    = regionStart + regionUsed;
+      final long pointSizeByteOffset = vertexByteOffset + coordBytes;
+      final long indexByteOffset     = vertexByteOffset + vertBytes;
+
+      int i = (int)vertexByteOffset;
+      int s = (int)pointSizeByteOffset;
+      int n = 0;
+      for (final Vertex v : model.vertexList)
+      {
+         mapped.putFloat(i + 0, (float)v.x);
+         mapped.putFloat(i + 4, (float)v.y);
+         mapped.putFloat(i + 8, (float)v.z);
+         mapped.putFloat(s, pointSizes[n]);
+         i += VertexFormat.FLOAT32.stride;
+         s += Buffers.SIZEOF_FLOAT;
+         n += 1;
+      }
+
+      // The line indexes come first, followed by the point indexes.
+      int lineIndex  = (int)indexByteOffset;
+      int pointIndex = lineIndex + numLines * 2 * Buffers.SIZEOF_INT;
+      for (final Primitive p : model.primitiveList)
+      {
+         if (p instanceof Point && ((Point)p).radius >= 0)
+         {
+            mapped.putInt(pointIndex, p.vIndexList.get(0));
+            pointIndex += Buffers.SIZEOF_INT;
+         }
+         else if (p instanceof LineSegment)
+         {
+            mapped.putInt(lineIndex + 0, p.vIndexList.get(0));
+            mapped.putInt(lineIndex + 4, p.vIndexList.get(1));
+            lineIndex += 2 * Buffers.SIZEOF_INT;
+         }
+      }
+
+      regionUsed    += vertBytes + indBytes;
+      bytesStreamed += vertBytes + indBytes;
+
+      return new GeometryCache.Entry(buffer[0], vertexByteOffset,
+                                     buffer[0], indexByteOffset,
+                                     VertexFormat.FLOAT32,
+                                     noScale, noOffset,
+                                     pointSizeByteOffset,
+                                     numLines * 2, numPoints,
+                                     null,
+                                     vertBytes + indBytes);
+   }
+
+   /**
+      Mark the end of the GPU's use of this frame's region.
+
+      @param gl  the {@link GL4} object of the current context
+   */
+   static void endFrame(final GL4 gl)
+   {
+      //https://docs.gl/gl4/glFenceSync
+      fences[region] = gl.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
+      if (bytesNeeded > regionSize) // make the next frame's geometry fit
+      {
+         overflows += 1;
+         regionSize = Math.max(bytesNeeded, 2 * regionSize);
+      }
+   }
+
+
+   private static void allocate(final GL4 gl)
+   {
+      // Wait for the GPU to finish with the old ring before deleting it.
+      for (int r = 0; r < fences.length; ++r)
+      {
+         if (fences[r] != 0)
+         {
+            gl.glClientWaitSync(fences[r], GL4.GL_SYNC_FLUSH_COMMANDS_BIT, Long.MAX_VALUE);
+            gl.glDeleteSync(fences[r]);
+         }
+      }
+      if (mapped != null)
+      {
+         //https://docs.gl/gl4/glDeleteBuffers
+         gl.glDeleteBuffers(buffer.length, buffer, 0); // this also unmaps it
+      }
+
+      final int  count = Math.max(1, numRegions);
+      final long size  = count * regionSize;
+      final int  flags = GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT;
+
+      //https://docs.gl/gl4/glBufferStorage
+      //https://docs.gl/gl4/glMapBufferRange
+      gl.glGenBuffers(buffer.length, buffer, 0);
+      gl.glBindBuffer(GL4.GL_ARRAY_BUFFER, buffer[0]);
+      gl.glBufferStorage(GL4.GL_ARRAY_BUFFER, size, null, flags);
+      mapped = gl.glMapBufferRange(GL4.GL_ARRAY_BUFFER, 0, size, flags)
+                 .order(ByteOrder.nativeOrder());
+      OpenGLChecker.checkCall(gl);
+
+      fences = new long[count];
+      allocatedRegionSize = regionSize;
+      region = 0;
+   }
+
+
+
+   // Private default constructor to enforce noninstantiable class.
+   // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
+   private StreamingBuffer() {
+      throw new AssertionError();
+   }
+}
@@ -0,0 +1,342 @@
+package renderer.pipelineGL;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import renderer.framebuffer.*;
+
+/**
+   Compare {@link Rasterize_Clip_Line}'s clipped loop, which only
+   visits the steps inside the clip rectangle and keeps the exact line
+   with integer arithmetic, with the original loop, {@link #walk}, which
+   visits every step of the segment, steps the minor coordinate with a
+   {@code double} accumulator, and tests each pixel against the rectangle.
+<p>
+   The two loops round the same line, so they must draw the same pixels,
+   except where the exact line is exactly halfway between two pixels. At
+   such a tie the clipped loop takes the upper pixel and the accumulator
+   takes whichever side it has drifted to. Every pixel on which the two
+   loops disagree must be one of the two pixels of a tie; any other
+   difference fails. That holds while the accumulator's drift stays under
+   the exact line's distance from a tie, that is, while
+   {@code major * (major + 2) * (the largest |minor| coordinate) < 2^52}.
+   Longer segments are compared with {@link #exact}, the exact line
+   itself, and must match it pixel for pixel.
+<p>
+   The segments are every pair of endpoints with integer coordinates in
+   a region that extends well past every edge of a small viewport, each
+   clipped to a set of rectangles, and random long segments that run far
+   off-screen, with endpoints that are not logical pixels, including
+   endpoints too far away for {@code long} arithmetic.
+*/
+public class TestRasterizeClipLine
+{
+    static final int W = 12;
+    static final int H = 9;
+
+    // xMin, yMin, xMax, yMax
+    static final int[][] rects = {
+        {0, 0, W, H},     // the whole viewport
+        {0, 0, 4, 4},     // tiles
+        {4, 0, 8, 4},
+        {8, 4, 12, 9},
+        {3, 2, 9, 7},
+        {5, 5, 6, 6},     // a single pixel
+        {6, 3, 6, 8},     // empty
+    };
+
+    static long segments = 0;
+    static long failures = 0;
+    static long tiePixels = 0;
+    static long exactSegments = 0;
+
+    public static void main(String[] args)
+    {
+        final FrameBuffer expected = new FrameBuffer(W, H);
+        final FrameBuffer actual   = new FrameBuffer(W, H);
+
+        // every segment with integer endpoints from 6 pixels past each edge
+        for (int x0 = -6; x0 <= W + 6; ++x0)
+        for (int y0 = -6; y0 <= H + 6; ++y0)
+        for (int x1 = -6; x1 <= W + 6; ++x1)
+        for (int y1 = -6; y1 <= H + 6; ++y1)
+        {
+            for (final int[] r : rects)
+            {
+                check(x0, y0, x1, y1, r, expected, actual);
+            }
+        }
+
+        // long segments, with endpoints up to 100,000 pixels off-screen,
+        // a few up to 10,000,000 pixels off-screen, and a few further
+        // away than long arithmetic can step
+        final Random random = new Random(2022);
+        for (int i = 0; i < 20600; ++i)
+        {
+            final double scale = (i < 20000) ? 20000
+                               : (i < 20200) ? 2000000
+                               : (i < 20400) ? 1e12
+                                             : 1e19;
+            final double x0 = random.nextGaussian() * scale;
+            final double y0 = random.nextGaussian() * scale;
+            final double x1 = random.nextInt(W + 2) + random.nextDouble();
+            final double y1 = random.nextInt(H + 2) + random.nextDouble();
+            final int[] r = rects[random.nextInt(rects.length)];
+            check(x0, y0, x1, y1, r, expected, actual);
+        }
+        System.out.printf("%,d clipped segments compared, %,d of them with the exact line%n",
+                          segments, exactSegments);
+        System.out.printf("%,d pixels differed from the accumulator at ties, %,d mismatches%n",
+                          tiePixels, failures);
+
+        if (failures == 0)
+        {
+            System.out.println("PASSED");
+        }
+        else
+        {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+
+
+    // Rasterize one segment into one clip rectangle with the clipped
+    // loop and with a reference loop, and compare.
+    static void check(final double x0, final double y0,
+                      final double x1, final double y1,
+                      final int[] r,
+                      final FrameBuffer expected,
+                      final FrameBuffer actual)
+    {
+        Arrays.fill(expected.pixel_buffer, 0);
+        Arrays.fill(actual.pixel_buffer, 0);
+
+        final int c = java.awt.Color.white.getRGB();
+        Rasterize_Clip_Line.rasterize(x0, y0, x1, y1, c,
+                                      r[0], r[1], r[2], r[3], PixelSink.of(actual.vp));
+
+        final boolean drifts = drifts(x0, y0, x1, y1);
+        if (drifts)
+        {
+            exactSegments += 1;
+            exact(x0, y0, x1, y1, c, r[0], r[1], r[2], r[3], PixelSink.of(expected.vp));
+        }
+        else
+        {
+            walk(x0, y0, x1, y1, c, r[0], r[1], r[2], r[3], PixelSink.of(expected.vp));
+        }
+
+        segments += 1;
+        boolean same = true;
+        for (int i = 0; i < W * H; ++i)
+        {
+            if (expected.pixel_buffer[i] != actual.pixel_buffer[i])
+            {
+                if (! drifts && atTie(x0, y0, x1, y1, i % W, i / W))
+                {
+                    tiePixels += 1;
+                }
+                else
+                {
+                    same = false;
+                }
+            }
+        }
+        if (! same)
+        {
+            failures += 1;
+            if (failures <= 10)
+            {
+                System.out.printf("MISMATCH (%s,%s)-(%s,%s) clipped to %s%n",
+                                  x0, y0, x1, y1, Arrays.toString(r));
+            }
+        }
+    }
+
+
+    // Can the accumulator in walk() drift far enough to round a
+    // step that is not at a tie differently from the exact line?
+    static boolean drifts(final double x0, final double y0,
+                          final double x1, final double y1)
+    {
+        final double dx = Math.abs((double)Math.round(x1) - Math.round(x0));
+        final double dy = Math.abs((double)Math.round(y1) - Math.round(y0));
+        final double major = Math.max(dx, dy);
+        final double minor = (dy <= dx) ? Math.max(Math.abs((double)Math.round(y0)), Math.abs((double)Math.round(y1)))
+                                        : Math.max(Math.abs((double)Math.round(x0)), Math.abs((double)Math.round(x1)));
+        return major * (major + 2) * minor >= 0x1p52;
+    }
+
+
+    // Is viewport pixel (x_vp, y_vp) one of the two pixels that the
+    // exact line is halfway between, at the step that the pixel is on?
+    static boolean atTie(final double x0, final double y0,
+                         final double x1, final double y1,
+                         final int x_vp, final int y_vp)
+    {
+        final long rx0 = Math.round(x0), ry0 = Math.round(y0);
+        final long rx1 = Math.round(x1), ry1 = Math.round(y1);
+        final boolean alongX = Math.abs(ry1 - ry0) <= Math.abs(rx1 - rx0);
+
+        // (M0, N0) to (M1, N1) in (major, minor) coordinates, with M0 <= M1
+        long M0 = alongX ? rx0 : ry0,  N0 = alongX ? ry0 : rx0;
+        long M1 = alongX ? rx1 : ry1,  N1 = alongX ? ry1 : rx1;
+        if (M1 < M0)
+        {
+            long t = M0; M0 = M1; M1 = t;
+                 t = N0; N0 = N1; N1 = t;
+        }
+        final long major = M1 - M0;
+        final long minor = N1 - N0;
+        if (major == 0)
+        {
+            return false;
+        }
+
+        final long k = (alongX ? x_vp + 1 : H - y_vp) - M0;
+        final long n =  alongX ? H - y_vp : x_vp + 1;
+        if (k < 0 || k > major)
+        {
+            return false;
+        }
+        // The exact minor offset is k*minor/major, which is halfway between
+        // two integers when 2*k*minor + major is a multiple of 2*major.
+        final long twice = 2*k*minor + major;
+        if (Math.floorMod(twice, 2*major) != 0)
+        {
+            return false;
+        }
+        final long upper = N0 + twice / (2*major);
+        return n == upper || n == upper - 1;
+    }
+
+
+    // The exact line, rounding halves up. For each major coordinate in
+    // the rectangle, find the minor coordinate with BigInteger arithmetic,
+    // so that any endpoints can be used.
+    static void exact(final double x0, final double y0,
+                      final double x1, final double y1,
+                      final int argb,
+                      final int xMin, final int yMin,
+                      final int xMax, final int yMax,
+                      final PixelSink sink)
+    {
+        final int h = sink.getHeight();
+        final BigInteger rx0 = BigInteger.valueOf(Math.round(x0));
+        final BigInteger ry0 = BigInteger.valueOf(Math.round(y0));
+        final BigInteger rx1 = BigInteger.valueOf(Math.round(x1));
+        final BigInteger ry1 = BigInteger.valueOf(Math.round(y1));
+        final boolean alongX = ry1.subtract(ry0).abs().compareTo(rx1.subtract(rx0).abs()) <= 0;
+
+        BigInteger M0 = alongX ? rx0 : ry0,  N0 = alongX ? ry0 : rx0;
+        BigInteger M1 = alongX ? rx1 : ry1,  N1 = alongX ? ry1 : rx1;
+        if (M1.compareTo(M0) < 0)
+        {
+            BigInteger t = M0; M0 = M1; M1 = t;
+                       t = N0; N0 = N1; N1 = t;
+        }
+        final BigInteger major = M1.subtract(M0);
+        final BigInteger minor = N1.subtract(N0);
+
+        final int lo = alongX ? xMin + 1 : h - yMax + 1;
+        final int hi = alongX ? xMax     : h - yMin;
+        for (int c = lo; c <= hi; ++c)
+        {
+            final BigInteger k = BigInteger.valueOf(c).subtract(M0);
+            if (k.signum() < 0 || k.compareTo(major) > 0)
+            {
+                continue;
+            }
+            BigInteger n = N0;
+            if (major.signum() > 0)
+            {
+                // N0 + round(k*minor/major) = N0 + floor((2*k*minor + major) / (2*major))
+                final BigInteger[] qr = k.shiftLeft(1).multiply(minor).add(major)
+                                         .divideAndRemainder(major.shiftLeft(1));
+                n = n.add(qr[1].signum() < 0 ? qr[0].subtract(BigInteger.ONE) : qr[0]);
+            }
+            final long x = alongX ? c : n.max(BigInteger.valueOf(-2*W)).min(BigInteger.valueOf(2*W)).longValue();
+            final long y = alongX ? n.max(BigInteger.valueOf(-2*H)).min(BigInteger.valueOf(2*H)).longValue() : c;
+            final int x_vp = (int)(x - 1);
+            final int y_vp = (int)(h - y);
+            if (x_vp >= xMin && x_vp < xMax && y_vp >= yMin && y_vp < yMax)
+            {
+                sink.setPixel(x_vp, y_vp, argb);
+            }
+        }
+    }
+
+
+    // The original rasterization loop, with its logging left out. It
+    // visits every step of the whole segment, steps the minor coordinate
+    // with a double accumulator, and tests every pixel against the clip
+    // rectangle.
+    static void walk(double x0, double y0,
+                     double x1, double y1,
+                     final int argb,
+                     final int xMin, final int yMin,
+                     final int xMax, final int yMax,
+                     final PixelSink sink)
+    {
+        final int h = sink.getHeight();
+
+        // Round each point's coordinates to the nearest logical pixel.
+        x0 = Math.round(x0);
+        y0 = Math.round(y0);
+        x1 = Math.round(x1);
+        y1 = Math.round(y1);
+
+        // Rasterize a degenerate line segment as a single pixel.
+        if ( (x0 == x1) && (y0 == y1) )
+        {
+            final int x0_vp = (int)x0 - 1;
+            final int y0_vp = h - (int)y0;
+            if (x0_vp >= xMin && x0_vp < xMax && y0_vp >= yMin && y0_vp < yMax)
+            {
+                sink.setPixel(x0_vp, y0_vp, argb);
+            }
+            return;
+        }
+
+        if (Math.abs(y1 - y0) <= Math.abs(x1 - x0)) // if abs(slope) <= 1
+        {
+            if (x1 < x0)
+            {
+                double t = x0; x0 = x1; x1 = t;
+                       t = y0; y0 = y1; y1 = t;
+            }
+            final double m = (y1 - y0) / (x1 - x0);
+            double y = y0;
+            for (int x = (int)x0; x <= (int)x1; x += 1, y += m)
+            {
+                final int x_vp = x - 1;
+                final int y_vp = h - (int)Math.round(y);
+                if (x_vp >= xMin && x_vp < xMax && y_vp >= yMin && y_vp < yMax)
+                {
+                    sink.setPixel(x_vp, y_vp, argb);
+                }
+            }
+        }
+        else // abs(slope) > 1, so rasterize along the y-axis.
+        {
+            if (y1 < y0)
+            {
+                double t = x0; x0 = x1; x1 = t;
+                       t = y0; y0 = y1; y1 = t;
+            }
+            final double m = (x1 - x0) / (y1 - y0);
+            double x = x0;
+            for (int y = (int)y0; y <= (int)y1; x += m, y += 1)
+            {
+                final int x_vp = (int)Math.round(x) - 1;
+                final int y_vp = h - y;
+                if (x_vp >= xMin && x_vp < xMax && y_vp >= yMin && y_vp < yMax)
+                {
+                    sink.setPixel(x_vp, y_vp, argb);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import renderer.scene.*;
+import renderer.framebuffer.*;
+
+/**
+   Which parts of one render should be traced, that is, logged
+   by {@link PipelineLoggerGL}.
+<p>
+   A {@code Trace} is given to a single call of
+   {@link PipelineCPU#render(Scene, FrameBuffer.Viewport, Trace)}
+   and applies only to that render; no other render, on this thread or
+   any other one, is traced. The trace is narrowed with any of these
+   predicates, each of which matches everything until it is set,
+<ul>
+<li>{@link #position}, the name of the {@link Position},
+<li>{@link #model}, the name of the position's {@link Model},
+<li>{@link #primitives}, a range of indexes into the model's primitive list,
+<li>{@link #pixels}, a rectangle of viewport pixels.
+</ul>
+   For example, to log every pixel that the first ten primitives of
+   the "wheel" model draw in the upper left corner of the viewport,
+<pre>{@code
+   PipelineCPU.render(scene, fb.vp,
+                      new Trace().model("wheel")
+                                 .primitives(0, 10)
+                                 .pixels(0, 0, 100, 100));
+}</pre>
+<p>
+   A traced primitive is rasterized by the same loops of
+   {@link Rasterize_Clip_Line} and {@link Rasterize_Clip_Point} as every
+   other primitive, so a trace never changes which pixels are drawn. The
+   loops only also visit, and log, the traced primitive's pixels that are
+   clipped. Every other primitive, and every other position, is drawn
+   with no logging and no test for it.
+*/
+public final class Trace
+{
+   private String positionName = null;
+   private String modelName = null;
+   private int primitiveFrom = 0;
+   private int primitiveTo = Integer.MAX_VALUE;
+   private int xMin = Integer.MIN_VALUE, yMin = Integer.MIN_VALUE;
+   private int xMax = Integer.MAX_VALUE, yMax = Integer.MAX_VALUE;
+
+   /**
+      Trace only the {@link Position}s with the given name.
+
+      @param name  the name of the {@link Position}s to trace
+      @return this {@code Trace}, to chain calls
+   */
+   public Trace position(final String name)
+   {
+      this.positionName = name;
+      return this;
+   }
+
+   /**
+      Trace only the {@link Position}s whose {@link Model} has the given name.
+
+      @param name  the name of the {@link Model}s to trace
+      @return this {@code Trace}, to chain calls
+   */
+   public Trace model(final String name)
+   {
+      this.modelName = name;
+      return this;
+   }
+
+   /**
+      Trace only the primitives with an index, in their model's primitive
+      list, from {@code from} up to, but not including, {@code to}.
+
+      @param from  index of the first primitive to trace
+      @param to    one past the index of the last primitive to trace
+      @return this {@code Trace}, to chain calls
+   */
+   public Trace primitives(final int from, final int to)
+   {
+      this.primitiveFrom = from;
+      this.primitiveTo = to;
+      return this;
+   }
+
+   /**
+      Log only the pixels with {@code xMin <= x_vp < xMax} and
+      {@code yMin <= y_vp < yMax}, in viewport coordinates.
+
+      @param xMin  the rectangle's left edge
+      @param yMin  the rectangle's top edge
+      @param xMax  one past the rectangle's right edge
+      @param yMax  one past the rectangle's bottom edge
+      @return this {@code Trace}, to chain calls
+   */
+   public Trace pixels(final int xMin, final int yMin,
+                       final int xMax, final int yMax)
+   {
+      this.xMin = xMin;
+      this.yMin = yMin;
+      this.xMax = xMax;
+      this.yMax = yMax;
+      return this;
+   }
+
+
+   /**
+      @param position  a {@link Position} in the {@link Scene} being rendered
+      @return {@code true} if the position, and its {@link Model}, are traced
+   */
+   public boolean tracesPosition(final Position position)
+   {
+      return (positionName == null || positionName.equals(position.name))
+          && (modelName    == null || modelName.equals(position.getModel().name));
+   }
+
+   /**
+      @param index  the index of a primitive in its model's primitive list
+      @return {@code true} if the primitive is traced
+   */
+   public boolean tracesPrimitive(final int index)
+   {
+      return primitiveFrom <= index && index < primitiveTo;
+   }
+
+   /**
+      @param x_vp  horizontal coordinate of a pixel in the viewport
+      @param y_vp  vertical coordinate of a pixel in the viewport
+      @return {@code true} if the pixel is logged
+   */
+   public boolean tracesPixel(final int x_vp, final int y_vp)
+   {
+      return xMin <= x_vp && x_vp < xMax && yMin <= y_vp && y_vp < yMax;
+   }
+
+
+   @Override
+   public String toString()
+   {
+      return "Trace[position=" + positionName
+           + ", model=" + modelName
+           + ", primitives=[" + primitiveFrom + ", " + primitiveTo + ")"
+           + ", pixels=[" + xMin + ", " + yMin + ", " + xMax + ", " + yMax + ")]";
+   }
+}
@@ -0,0 +1,71 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL;
+
+import java.util.EnumSet;
+
+import com.jogamp.opengl.*;
+import com.jogamp.common.nio.Buffers;
+
+/**
+   The encodings that a {@link renderer.scene.Model}'s vertex
+   coordinates can be uploaded to the GPU with.
+<p>
+   The vertex shader's {@code vertex} attribute is a {@code vec3}, so
+   the GPU always works with 32-bit floats. Uploading {@code double}s
+   only doubled the bus traffic and made the driver convert them.
+<ul>
+<li>{@link #FLOAT32} uploads each coordinate as a 32-bit float,
+    12 bytes per vertex.
+<li>{@link #INT16} uploads each coordinate as a 16-bit signed integer,
+    normalized against the model's bounding box, 8 bytes per vertex
+    (three shorts padded to a 4-byte boundary). The vertex shader
+    decodes it with {@code vertexOffset + vertexScale * vertex}.
+</ul>
+*/
+public enum VertexFormat
+{
+   FLOAT32(GL4.GL_FLOAT, false, 3 * Buffers.SIZEOF_FLOAT),
+   INT16  (GL4.GL_SHORT, true,  4 * Buffers.SIZEOF_SHORT);
+
+   /** The largest magnitude of a normalized {@link #INT16} coordinate. */
+   public static final int INT16_MAX = Short.MAX_VALUE;
+
+   /**
+      The first {@link ShaderStage} of the vertex shader, which reads the
+      {@code vertex} attribute and, for the {@link ShaderFeature#QUANTIZED_VERTICES}
+      variant, decodes it with {@code vertexOffset + vertexScale * vertex}.
+   */
+   public static final ShaderStage decodeVertex = new ShaderStage(
+      "decodeVertex",
+      EnumSet.of(ShaderFeature.QUANTIZED_VERTICES),
+      variant -> new String[]{"layout (location=0) in vec3 vertex;"},
+      variant -> variant.contains(ShaderFeature.QUANTIZED_VERTICES)
+                 ? new String[]{"uniform vec3 vertexScale;",
+                                "uniform vec3 vertexOffset;"}
+                 : new String[]{},
+      variant -> variant.contains(ShaderFeature.QUANTIZED_VERTICES)
+                 ? new String[]{"return vec4(vertexOffset + vertexScale * vertex, 1);"}
+                 : new String[]{"return vec4(vertex, 1);"}
+   );
+
+   /** The type to pass to {@code glVertexAttribPointer}. */
+   public final int glType;
+
+   /** Whether {@code glVertexAttribPointer} should normalize the coordinates. */
+   public final boolean normalized;
+
+   /** The number of bytes from one vertex to the next. */
+   public final int stride;
+
+   private VertexFormat(final int glType, final boolean normalized, final int stride)
+   {
+      this.glType     = glType;
+      this.normalized = normalized;
+      this.stride     = stride;
+   }
+}
@@ -64,6 +64,87 @@ public class Viewport
 
 
 
+   /**
+      Transform the first {@code n} vertices, given as separate arrays of
+      image-plane coordinates, to the logical pixel-plane in place.
+      <p>
+      This is the same transformation as {@link #imagePlane2pixelPlane(Model, FrameBuffer.Viewport)},
+      with the same rounding, but it creates no objects, so a renderer that
+      keeps its coordinates in reusable arrays allocates nothing per frame.
+      The loop body is the same straight-line arithmetic on every element,
+      which the JIT compiles to SIMD instructions.
+
+      @param n   the number of vertices to transform
+      @param x   the x-coordinates, replaced by pixel-plane x-coordinates
+      @param y   the y-coordinates, replaced by pixel-plane y-coordinates
+      @param vp  a reference to a {@link FrameBuffer.Viewport} in a {@link FrameBuffer}
+   */
+   public static void imagePlane2pixelPlane(final int n,
+                                            final double[] x,
+                                            final double[] y,
+                                            final FrameBuffer.Viewport vp)
+   {
+      imagePlane2pixelPlane(n, x, y, x, y, vp);
+   }
+
+   /**
+      Transform the first {@code n} vertices from image-plane coordinate
+      arrays into caller-supplied pixel-plane coordinate arrays. An output
+      array may be the same array as its input.
+
+      @param n     the number of vertices to transform
+      @param x     the image-plane x-coordinates
+      @param y     the image-plane y-coordinates
+      @param xOut  receives the pixel-plane x-coordinates
+      @param yOut  receives the pixel-plane y-coordinates
+      @param vp    a reference to a {@link FrameBuffer.Viewport} in a {@link FrameBuffer}
+   */
+   public static void imagePlane2pixelPlane(final int n,
+                                            final double[] x,
+                                            final double[] y,
+                                            final double[] xOut,
+                                            final double[] yOut,
+                                            final FrameBuffer.Viewport vp)
+   {
+      final double sx = vp.getWidthVP()  / 2.001;
+      final double sy = vp.getHeightVP() / 2.001;
+
+      // Two separate loops, so that each one streams through one pair of arrays.
+      for (int i = 0; i < n; ++i)
+      {
+         xOut[i] = 0.5 + sx * (x[i] + 1); // x_pp = 0.5 + w/2 * (x_p+1)
+      }
+      for (int i = 0; i < n; ++i)
+      {
+         yOut[i] = 0.5 + sy * (y[i] + 1); // y_pp = 0.5 + h/2 * (y_p+1)
+      }
+   }
+
+   /**
+      Transform the first {@code n} vertices of an interleaved
+      {@code x, y, x, y, ...} array of image-plane coordinates
+      to the logical pixel-plane in place.
+
+      @param n   the number of vertices to transform
+      @param xy  the coordinates, two per vertex, replaced by pixel-plane coordinates
+      @param vp  a reference to a {@link FrameBuffer.Viewport} in a {@link FrameBuffer}
+   */
+   public static void imagePlane2pixelPlane(final int n,
+                                            final double[] xy,
+                                            final FrameBuffer.Viewport vp)
+   {
+      final double sx = vp.getWidthVP()  / 2.001;
+      final double sy = vp.getHeightVP() / 2.001;
+
+      for (int i = 0; i < 2 * n; i += 2)
+      {
+         xy[i + 0] = 0.5 + sx * (xy[i + 0] + 1);
+         xy[i + 1] = 0.5 + sy * (xy[i + 1] + 1);
+      }
+   }
+
+
+
    // Private default constructor to enforce noninstantiable class.
    // See Item 4 in "Effective Java", 3rd Ed, Joshua Bloch.
    private Viewport() {
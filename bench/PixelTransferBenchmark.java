@@ -0,0 +1,102 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+
+import renderer.framebuffer.*;
+import renderer.pipelineGL.PixelTransfer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+   Compare the original per-pixel copy of a read back frame into a
+   {@link FrameBuffer.Viewport} with the row-at-a-time bulk copy in
+   {@link PixelTransfer}.
+<p>
+   This benchmark needs no OpenGL context; it copies a frame that has
+   already been read back into a direct buffer. Build the benchmarks
+   jar with {@code bench/pom.xml} and run it,
+<pre>{@code
+   java -jar renderer/pipelineGL/bench/target/benchmarks.jar PixelTransferBenchmark
+}</pre>
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelTransferBenchmark
+{
+   @Param({"1920x1080", "3840x2160"})
+   public String size;
+
+   private FrameBuffer fb;
+   private IntBuffer   pixels;
+
+   @Setup
+   public void setup()
+   {
+      final String[] wh = size.split("x");
+      final int w = Integer.parseInt(wh[0]);
+      final int h = Integer.parseInt(wh[1]);
+
+      fb = new FrameBuffer(w, h);
+
+      final ByteBuffer bytes = ByteBuffer.allocateDirect(w * h * 4)
+                                         .order(ByteOrder.nativeOrder());
+      pixels = bytes.asIntBuffer();
+      for (int i = 0; i < w * h; ++i)
+      {
+         pixels.put(i, 0xFF000000 | (i * 0x9E3779B1) >>> 8);
+      }
+   }
+
+   /**
+      The copy loop that {@code PipelineGL.render} originally used,
+      column-major with one {@code setPixelVP} call per pixel.
+   */
+   @Benchmark
+   public FrameBuffer perPixel()
+   {
+      final FrameBuffer.Viewport vp = fb.vp;
+      pixels.rewind();
+      for (int x = 0; x < vp.getWidthVP(); x += 1)
+      {
+         for (int y = 0; y < vp.getHeightVP(); y += 1)
+         {
+            vp.setPixelVP(x, y, pixels.get());
+         }
+      }
+      return fb;
+   }
+
+   /**
+      The row-major bulk copy, including the vertical flip.
+   */
+   @Benchmark
+   public FrameBuffer bulkRows()
+   {
+      PixelTransfer.copyToViewport(pixels, fb.vp);
+      return fb;
+   }
+
+
+   public static void main(String[] args) throws RunnerException
+   {
+      new Runner(new OptionsBuilder()
+                    .include(PixelTransferBenchmark.class.getSimpleName())
+                    .build()).run();
+   }
+}
@@ -0,0 +1,155 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import renderer.scene.*;
+import renderer.scene.primitives.*;
+import renderer.framebuffer.*;
+import renderer.pipelineGL.GeometryCache;
+import renderer.pipelineGL.PhaseTimer;
+import renderer.pipelineGL.PipelineGL;
+import renderer.pipelineGL.StreamingBuffer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+   Measure whole frames of {@link PipelineGL#render}, from the
+   {@link Scene} to the pixels in the {@link FrameBuffer}.
+<p>
+   The scenes are synthetic. Every {@link Model} is a ring of
+   {@link #segments} vertices, drawn either as line segments or as
+   points, and {@link #positions} copies of it are laid out in a grid
+   in front of the camera. Half of the positions share one model and
+   the other half each get their own, so both instanced draws and
+   many small draws are exercised.
+<p>
+   The score is frames per second. Each trial also prints the bytes
+   uploaded to the GPU per frame, and the CPU and GPU time spent
+   reading the frame back, from {@link PhaseTimer}.
+<p>
+   No GPU is needed. On a Linux box without one, Mesa's llvmpipe
+   driver provides OpenGL 4.5 in software,
+<pre>{@code
+   LIBGL_ALWAYS_SOFTWARE=1 GALLIUM_DRIVER=llvmpipe \
+   xvfb-run java -jar renderer/pipelineGL/bench/target/benchmarks.jar RenderBenchmark
+}</pre>
+   {@code PipelineGL} creates its pbuffer, at the viewport's size, the
+   first time it renders. So every trial must run in its own forked JVM.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark
+{
+   @Param({"100", "10000"})
+   public int positions;
+
+   @Param({"16", "256"})
+   public int segments;
+
+   @Param({"LINES", "POINTS"})
+   public String primitive;
+
+   @Param({"1024x768", "1920x1080"})
+   public String size;
+
+   private Scene       scene;
+   private FrameBuffer fb;
+
+   private long frames;
+   private long uploadBytes;
+
+   @Setup(Level.Trial)
+   public void setup()
+   {
+      final String[] wh = size.split("x");
+      fb = new FrameBuffer(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]));
+
+      scene = new Scene();
+      final Model shared = ring(segments, primitive.equals("POINTS"));
+      final int n = (int)Math.ceil(Math.sqrt(positions));
+      for (int i = 0; i < positions; ++i)
+      {
+         final Model model = (i % 2 == 0) ? shared : ring(segments, primitive.equals("POINTS"));
+         final double x = -1 + 2.0 * (i % n + 0.5) / n;
+         final double y = -1 + 2.0 * (i / n + 0.5) / n;
+         scene.addPosition(new Position(model).translate(x, y, -2));
+      }
+
+      PhaseTimer.enabled = true;
+      PipelineGL.render(scene, fb); // create the context, compile the shaders, upload the models
+   }
+
+   @Setup(Level.Iteration)
+   public void resetCounters()
+   {
+      PhaseTimer.reset();
+      frames = 0;
+      uploadBytes = 0;
+   }
+
+   @Benchmark
+   public FrameBuffer render()
+   {
+      final long before = GeometryCache.getBytesUploaded() + StreamingBuffer.getBytesStreamed();
+      PipelineGL.render(scene, fb);
+      final long after  = GeometryCache.getBytesUploaded() + StreamingBuffer.getBytesStreamed();
+
+      // the translations are re-sent every frame, three floats per position
+      uploadBytes += after - before + 3L * Float.BYTES * scene.positionList.size();
+      frames += 1;
+      return fb;
+   }
+
+   @TearDown(Level.Iteration)
+   public void report()
+   {
+      System.out.printf("%n  upload %,d bytes/frame%n", frames == 0 ? 0 : uploadBytes / frames);
+      System.out.printf("  readback gpu %s%n", PhaseTimer.gpuTime(PhaseTimer.Phase.READBACK));
+      System.out.printf("  readback cpu %s%n", PhaseTimer.cpuTime(PhaseTimer.Phase.READBACK));
+   }
+
+
+   // A closed ring of the given number of vertices, in a circle of radius 0.04.
+   private static Model ring(final int numVertexes, final boolean points)
+   {
+      final Model model = new Model("ring");
+      for (int i = 0; i < numVertexes; ++i)
+      {
+         final double angle = 2 * Math.PI * i / numVertexes;
+         model.addVertex(new Vertex(0.04 * Math.cos(angle), 0.04 * Math.sin(angle), 0));
+      }
+      for (int i = 0; i < numVertexes; ++i)
+      {
+         if (points)
+         {
+            model.addPrimitive(new Point(i));
+         }
+         else
+         {
+            model.addPrimitive(new LineSegment(i, (i + 1) % numVertexes));
+         }
+      }
+      return model;
+   }
+
+
+   public static void main(String[] args) throws RunnerException
+   {
+      new Runner(new OptionsBuilder()
+                    .include(RenderBenchmark.class.getSimpleName())
+                    .build()).run();
+   }
+}
@@ -0,0 +1,93 @@
+/*
+ * Renderer 1. The MIT License.
+ * Copyright (c) 2022 rlkraft@pnw.edu
+ * See LICENSE for details.
+*/
+
+package renderer.pipelineGL.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import renderer.scene.*;
+import renderer.framebuffer.*;
+import renderer.pipelineGL.Viewport;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+   Compare the {@link Model}-to-{@link Model} viewport transformation,
+   which allocates a {@link Vertex} per vertex, with the transformation
+   of packed coordinate arrays into reusable arrays.
+<p>
+   Run it with JMH's allocation profiler to see the difference in
+   garbage per call as well as in time,
+<pre>{@code
+   java -jar renderer/pipelineGL/bench/target/benchmarks.jar ViewportBenchmark -prof gc
+}</pre>
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewportBenchmark
+{
+   @Param({"1000", "1000000"})
+   public int numVertexes;
+
+   private FrameBuffer fb;
+   private Model    model;
+   private double[] x, y;
+   private double[] xOut, yOut;
+
+   @Setup
+   public void setup()
+   {
+      fb = new FrameBuffer(1920, 1080);
+
+      final Random random = new Random(2022);
+      model = new Model("cloud");
+      x = new double[numVertexes];
+      y = new double[numVertexes];
+      xOut = new double[numVertexes];
+      yOut = new double[numVertexes];
+      for (int i = 0; i < numVertexes; ++i)
+      {
+         x[i] = 2 * random.nextDouble() - 1;
+         y[i] = 2 * random.nextDouble() - 1;
+         model.addVertex(new Vertex(x[i], y[i], -1));
+      }
+   }
+
+   /**
+      The original stage, a new {@link Model} with a new {@link Vertex} for every vertex.
+   */
+   @Benchmark
+   public Model perVertexObjects()
+   {
+      return Viewport.imagePlane2pixelPlane(model, fb.vp);
+   }
+
+   /**
+      The structure-of-arrays stage, into arrays that are reused every call.
+   */
+   @Benchmark
+   public double[] packedArrays()
+   {
+      Viewport.imagePlane2pixelPlane(numVertexes, x, y, xOut, yOut, fb.vp);
+      return xOut;
+   }
+
+
+   public static void main(String[] args) throws RunnerException
+   {
+      new Runner(new OptionsBuilder()
+                    .include(ViewportBenchmark.class.getSimpleName())
+                    .build()).run();
+   }
+}